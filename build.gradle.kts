@@ -38,6 +38,88 @@ tasks.getByName<Test>("test") {
     useJUnitPlatform()
 }
 
+// Multi-release variant for Java 21+ (src/main/java21), enabled with -PwithJava21.
+// The JDK 21 is resolved as a toolchain, so the build itself can keep running on an older JDK.
+// Java 21 toolchains and class files need Gradle 8.4+; the wrapper has not been upgraded yet.
+if (project.hasProperty("withJava21")) {
+    if (GradleVersion.current() < GradleVersion.version("8.4")) {
+        throw GradleException("-PwithJava21 needs Gradle 8.4 or newer, running ${GradleVersion.current().version}")
+    }
+    val java21Compiler = javaToolchains.compilerFor {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+    val java21Launcher = javaToolchains.launcherFor {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+
+    val java21 by sourceSets.creating {
+        java.srcDir("src/main/java21")
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    }
+    val benchmark21 by sourceSets.creating {
+        java.srcDir("src/benchmark21/java")
+        compileClasspath += java21.output + sourceSets.main.get().output
+        runtimeClasspath += java21.output + sourceSets.main.get().output
+    }
+    configurations["benchmark21Implementation"].extendsFrom(configurations.implementation.get())
+    dependencies {
+        "benchmark21Implementation"("org.bouncycastle:bcprov-${Version.BCPROV}")
+        "benchmark21Implementation"("org.bouncycastle:bcpkix-${Version.BCPROV}")
+    }
+
+    tasks.named<JavaCompile>("compileJava21Java") {
+        javaCompiler.set(java21Compiler)
+        options.release.set(21)
+    }
+    tasks.named<JavaCompile>("compileBenchmark21Java") {
+        javaCompiler.set(java21Compiler)
+        options.release.set(21)
+    }
+
+    tasks.named<Jar>("jar") {
+        into("META-INF/versions/21") {
+            from(java21.output)
+        }
+        manifest {
+            attributes("Multi-Release" to "true")
+        }
+    }
+
+    // Runs the test suite on JDK 21 with the Java 21 classes ahead of the baseline ones,
+    // as the Multi-Release jar resolves them there.
+    val test21 by tasks.registering(Test::class) {
+        description = "Runs the tests on JDK 21 against the Java 21 variant."
+        group = "verification"
+        useJUnitPlatform()
+        javaLauncher.set(java21Launcher)
+        testClassesDirs = sourceSets.test.get().output.classesDirs
+        classpath = java21.output + sourceSets.test.get().runtimeClasspath
+    }
+    tasks.named("check") {
+        dependsOn(test21)
+    }
+
+    val benchmarkArgs = (findProperty("benchmarkArgs") as String?)?.split(" ") ?: emptyList<String>()
+    tasks.register<JavaExec>("benchmarkVirtualThreads") {
+        group = "verification"
+        description = "Loads plugin classes from thousands of concurrent virtual threads."
+        javaLauncher.set(java21Launcher)
+        classpath = benchmark21.runtimeClasspath
+        mainClass.set("VirtualThreadClassLoadingBenchmark")
+        jvmArgs("-Djdk.tracePinnedThreads=short")
+        args(benchmarkArgs)
+    }
+    tasks.register<JavaExec>("benchmarkVirtualThreadsBaseline") {
+        group = "verification"
+        description = "Runs benchmarkVirtualThreads against the monitor-based baseline locks."
+        javaLauncher.set(java21Launcher)
+        classpath = benchmark21.runtimeClasspath - java21.output
+        mainClass.set("VirtualThreadClassLoadingBenchmark")
+        jvmArgs("-Djdk.tracePinnedThreads=short")
+        args(benchmarkArgs)
+    }
+}
+
 publishing {
     publications {
         create<MavenPublication>("maven") {
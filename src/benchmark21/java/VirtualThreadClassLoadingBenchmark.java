@@ -0,0 +1,162 @@
+import kr.jclab.javautils.pluginloader.JarPluginClassLoader;
+import kr.jclab.javautils.pluginloader.JarVerificationContext;
+import kr.jclab.javautils.pluginloader.JarVerificationHandler;
+import kr.jclab.javautils.pluginloader.JarVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Loads plugin classes from thousands of concurrent virtual threads, and from a platform thread
+ * pool for comparison.
+ *
+ * Usage: VirtualThreadClassLoadingBenchmark [tasks] [classes] [loadsPerTask]
+ * Add -Djdk.tracePinnedThreads=short to report carrier thread pinning.
+ *
+ * The LoaderLocks variant in use depends on the classpath: benchmarkVirtualThreads runs with
+ * the Java 21 variant, benchmarkVirtualThreadsBaseline with the monitor baseline.
+ */
+public class VirtualThreadClassLoadingBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int classes = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int loadsPerTask = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        File directory = Files.createTempDirectory("plugin-loader-bench").toFile();
+        File jar = new File(directory, "bench-plugin.jar");
+        writePluginJar(jar, classes);
+
+        System.out.printf("locks=%s tasks=%d classes=%d loadsPerTask=%d%n", lockVariant(), tasks, classes, loadsPerTask);
+        for (int round = 0; round < ROUNDS; round++) {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                report("virtual", round, run(executor, jar, tasks, classes, loadsPerTask), tasks * loadsPerTask);
+            }
+            try (ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4)) {
+                report("platform", round, run(executor, jar, tasks, classes, loadsPerTask), tasks * loadsPerTask);
+            }
+        }
+
+        jar.delete();
+        directory.delete();
+    }
+
+    /**
+     * @return "reentrant" for the Java 21 LoaderLocks variant, "monitor" for the baseline
+     */
+    private static String lockVariant() throws ClassNotFoundException {
+        Class<?> loaderLocks = Class.forName("kr.jclab.javautils.pluginloader.LoaderLocks");
+        for (Field field : loaderLocks.getDeclaredFields()) {
+            if (ReentrantLock.class.equals(field.getType())) {
+                return "reentrant";
+            }
+        }
+        return "monitor";
+    }
+
+    private static void report(String kind, int round, long elapsedNanos, int loads) {
+        System.out.printf("%-8s round=%d elapsed=%8.2f ms throughput=%12.0f loads/s%n",
+                kind, round, elapsedNanos / 1e6, loads / (elapsedNanos / 1e9));
+    }
+
+    private static long run(ExecutorService executor, File jar, int tasks, int classes, int loadsPerTask) throws Exception {
+        JarVerifier verifier = new JarVerifier(new AllowAllVerificationHandler());
+        try (JarPluginClassLoader classLoader = JarPluginClassLoader.newInstance(
+                Collections.singletonList(jar),
+                VirtualThreadClassLoadingBenchmark.class.getClassLoader(),
+                verifier)) {
+            List<Future<?>> futures = new ArrayList<>(tasks);
+            long start = System.nanoTime();
+            for (int i = 0; i < tasks; i++) {
+                final long seed = i;
+                futures.add(executor.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(seed);
+                    for (int j = 0; j < loadsPerTask; j++) {
+                        classLoader.loadClass(className(random.nextInt(classes)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static String className(int index) {
+        return "bench.C" + index;
+    }
+
+    private static void writePluginJar(File file, int classes) throws IOException {
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < classes; i++) {
+                String internalName = className(i).replace('.', '/');
+                output.putNextEntry(new ZipEntry(internalName + ".class"));
+                output.write(emptyClass(internalName));
+                output.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * @return class file of an empty public class extending java.lang.Object
+     */
+    private static byte[] emptyClass(String internalName) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(0xCAFEBABE);
+        output.writeShort(0);
+        output.writeShort(52);
+        output.writeShort(5);
+        output.writeByte(7);
+        output.writeShort(2);
+        output.writeByte(1);
+        output.writeUTF(internalName);
+        output.writeByte(7);
+        output.writeShort(4);
+        output.writeByte(1);
+        output.writeUTF("java/lang/Object");
+        output.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+        output.writeShort(1);
+        output.writeShort(3);
+        output.writeShort(0); // interfaces
+        output.writeShort(0); // fields
+        output.writeShort(0); // methods
+        output.writeShort(0); // attributes
+        output.flush();
+        return buffer.toByteArray();
+    }
+
+    private static class AllowAllVerificationHandler implements JarVerificationHandler {
+        @Override
+        public void start(JarVerificationContext context) {
+            context.setVerified(true);
+        }
+
+        @Override
+        public void verify(JarVerificationContext context, List<X509Certificate> chain) {
+        }
+
+        @Override
+        public void end(JarVerificationContext context) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Class header information read from a class file without defining the class.
+ */
+public final class ClassMetadata {
+    private final File jarFile;
+    private final String name;
+    private final String superName;
+    private final int access;
+    private final List<String> interfaces;
+    private final List<String> annotations;
+
+    public ClassMetadata(File jarFile, String name, String superName, int access, List<String> interfaces, List<String> annotations) {
+        this.jarFile = jarFile;
+        this.name = name;
+        this.superName = superName;
+        this.access = access;
+        this.interfaces = interfaces;
+        this.annotations = annotations;
+    }
+
+    /**
+     * @return jar containing the class
+     */
+    public File getJarFile() {
+        return jarFile;
+    }
+
+    /**
+     * @return binary name of the class, e.g. {@code hello.TestComponent}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return binary name of the superclass, or null if the class is {@code java.lang.Object} itself
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * @return class access flags as in the class file
+     */
+    public int getAccess() {
+        return access;
+    }
+
+    public boolean isInterface() {
+        return (access & Modifier.INTERFACE) != 0;
+    }
+
+    public boolean isAbstract() {
+        return (access & Modifier.ABSTRACT) != 0;
+    }
+
+    /**
+     * @return binary names of the directly implemented interfaces
+     */
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * @return binary names of the class-level annotations, visible and invisible at runtime
+     */
+    public List<String> getAnnotations() {
+        return annotations;
+    }
+
+    public boolean hasAnnotation(String annotationName) {
+        return annotations.contains(annotationName);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassMetadata{" +
+                "name='" + name + '\'' +
+                ", superName='" + superName + '\'' +
+                ", interfaces=" + interfaces +
+                ", annotations=" + annotations +
+                '}';
+    }
+}
@@ -0,0 +1,193 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Reads all class entries of a package in one sequential pass when its first class is loaded.
+ *
+ * The prefetched bytes are handed out once to the following define calls and dropped when
+ * they are not used within the time to live. Expired bytes are purged by a shared daemon
+ * timer, so they do not stay on the heap once the loader stops loading new packages.
+ */
+public final class ClassPrefetcher {
+    private static final class ExpiryTimer {
+        static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+
+        private static ScheduledThreadPoolExecutor createExecutor() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+                Thread thread = new Thread(runnable, "plugin-loader-prefetch-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
+    private static final class PrefetchedClass {
+        final byte[] content;
+        final long deadline;
+
+        PrefetchedClass(byte[] content, long deadline) {
+            this.content = content;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long timeToLiveNanos;
+    private final long maxPackageBytes;
+    private final ConcurrentHashMap<String, PrefetchedClass> prefetched = new ConcurrentHashMap<>();
+    private final Set<String> prefetchedPackages = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ConcurrentHashMap<String, Map<String, List<String>>> packageEntries = new ConcurrentHashMap<>();
+    private final AtomicLong prefetchCount = new AtomicLong();
+    private final AtomicLong usedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param timeToLive      how long prefetched bytes are kept
+     * @param unit            unit of timeToLive
+     * @param maxPackageBytes maximum uncompressed bytes read ahead for one package
+     */
+    public ClassPrefetcher(long timeToLive, TimeUnit unit, long maxPackageBytes) {
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.maxPackageBytes = maxPackageBytes;
+    }
+
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    public long getUsedCount() {
+        return usedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Takes the prefetched content of the entry, prefetching the entry's package first if this
+     * is the first request for it.
+     *
+     * @return class bytes, or null if the entry was not prefetched
+     */
+    byte[] take(JarFileEntry fileEntry, JarEntry jarEntry) throws IOException {
+        String name = jarEntry.getName();
+        String key = fileEntry.getFile().getPath() + "!/" + name;
+
+        PrefetchedClass prefetchedClass = this.prefetched.remove(key);
+        if (prefetchedClass != null) {
+            if (System.nanoTime() - prefetchedClass.deadline <= 0) {
+                this.usedCount.incrementAndGet();
+                return prefetchedClass.content;
+            }
+            this.droppedCount.incrementAndGet();
+            return null;
+        }
+
+        int lastSlashIndex = name.lastIndexOf('/');
+        String packagePath = name.substring(0, lastSlashIndex + 1);
+        if (!this.prefetchedPackages.add(fileEntry.getFile().getPath() + "!/" + packagePath)) {
+            return null;
+        }
+
+        this.purgeExpired();
+        return this.prefetchPackage(fileEntry, packagePath, jarEntry);
+    }
+
+    void clear() {
+        this.prefetched.clear();
+        this.prefetchedPackages.clear();
+        this.packageEntries.clear();
+    }
+
+    private byte[] prefetchPackage(JarFileEntry fileEntry, String packagePath, JarEntry requested) throws IOException {
+        JarFile jarFile = fileEntry.getJarFile();
+        String filePath = fileEntry.getFile().getPath();
+        long deadline = System.nanoTime() + this.timeToLiveNanos;
+        long totalBytes = 0;
+        byte[] requestedContent = null;
+
+        for (String name : this.findPackageClasses(fileEntry, packagePath)) {
+            JarEntry jarEntry = name.equals(requested.getName()) ? requested : jarFile.getJarEntry(name);
+            if (jarEntry == null || jarEntry.getSize() < 0) continue;
+            if (jarEntry != requested && totalBytes + jarEntry.getSize() > this.maxPackageBytes) {
+                if (requestedContent != null) break;
+                // over the limit: only keep scanning for the requested class
+                continue;
+            }
+            byte[] content = JarPluginClassLoader.readJarEntry(jarFile, jarEntry);
+            totalBytes += content.length;
+            if (jarEntry == requested) {
+                requestedContent = content;
+            } else {
+                this.prefetched.put(filePath + "!/" + name, new PrefetchedClass(content, deadline));
+                this.prefetchCount.incrementAndGet();
+            }
+        }
+        if (totalBytes > (requestedContent != null ? requestedContent.length : 0)) {
+            // One tick after the deadline, so every entry of this package has expired by then.
+            ExpiryTimer.EXECUTOR.schedule(this::purgeExpired, this.timeToLiveNanos + 1, TimeUnit.NANOSECONDS);
+        }
+        return requestedContent;
+    }
+
+    /**
+     * @return class entry names directly in the package, in jar order
+     */
+    private List<String> findPackageClasses(JarFileEntry fileEntry, String packagePath) {
+        JarEntryIndex entryIndex = fileEntry.getEntryIndex();
+        if (entryIndex != null) {
+            List<JarEntryIndex.Entry> entries = new ArrayList<>();
+            for (String name : entryIndex.findNamesByPrefix(packagePath)) {
+                if (isPackageClass(name, packagePath)) {
+                    entries.add(entryIndex.find(name));
+                }
+            }
+            entries.sort(Comparator.comparingLong(JarEntryIndex.Entry::getOffset));
+            List<String> names = new ArrayList<>(entries.size());
+            for (JarEntryIndex.Entry entry : entries) {
+                names.add(entry.getName());
+            }
+            return names;
+        }
+
+        Map<String, List<String>> packages = this.packageEntries.computeIfAbsent(fileEntry.getFile().getPath(), (key) -> {
+            Map<String, List<String>> map = new ConcurrentHashMap<>();
+            Enumeration<JarEntry> entries = fileEntry.getJarFile().entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class")) continue;
+                map.computeIfAbsent(name.substring(0, name.lastIndexOf('/') + 1), (k) -> new ArrayList<>()).add(name);
+            }
+            return map;
+        });
+        // Each package is prefetched once, so its names are no longer needed afterwards.
+        List<String> names = packages.remove(packagePath);
+        if (packages.isEmpty()) {
+            this.packageEntries.remove(fileEntry.getFile().getPath(), packages);
+        }
+        return names != null ? names : Collections.emptyList();
+    }
+
+    private static boolean isPackageClass(String name, String packagePath) {
+        return name.endsWith(".class") && name.indexOf('/', packagePath.length()) < 0;
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, PrefetchedClass> entry : this.prefetched.entrySet()) {
+            // Conditional remove: a concurrent take() may have handed the entry out already.
+            if (now - entry.getValue().deadline > 0 && this.prefetched.remove(entry.getKey(), entry.getValue())) {
+                this.droppedCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+/**
+ * Reads class names, superclasses, interfaces and class-level annotations of the classes in
+ * jars by parsing the class files directly, without defining any class.
+ *
+ * Jars are scanned in parallel. When a cache directory is given, the result of each jar is
+ * persisted under the SHA-256 of the jar and reused while the jar content is unchanged.
+ */
+public final class ClassScanner {
+    private static final int CACHE_MAGIC = 0x504c4353;
+    private static final int CACHE_VERSION = 1;
+    private static final String CACHE_SUFFIX = ".classes";
+
+    private static final int CLASS_MAGIC = 0xCAFEBABE;
+    private static final int ACC_MODULE = 0x8000;
+
+    private final File cacheDirectory;
+
+    /**
+     * @param cacheDirectory directory to persist scan results in, or null to always parse
+     */
+    public ClassScanner(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return metadata of all classes, in jar order
+     */
+    public List<ClassMetadata> scan(List<JarFileEntry> jarFiles) throws IOException {
+        try {
+            return jarFiles.parallelStream()
+                    .map(fileEntry -> {
+                        try {
+                            return this.scanJar(fileEntry);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public List<ClassMetadata> scanJar(JarFileEntry fileEntry) throws IOException {
+        File cacheFile = null;
+        if (this.cacheDirectory != null && !fileEntry.isDirectory()) {
+            cacheFile = new File(this.cacheDirectory, hashFile(fileEntry.getFile()) + CACHE_SUFFIX);
+            List<ClassMetadata> cached = readCache(fileEntry.getFile(), cacheFile);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        JarFile jarFile = fileEntry.getJarFile();
+        List<ClassMetadata> classes = new ArrayList<>();
+        for (String name : findClassEntries(fileEntry)) {
+            byte[] content;
+            if (fileEntry.isDirectory()) {
+                content = fileEntry.getDirectoryIndex().read(name);
+            } else {
+                JarEntry jarEntry = jarFile.getJarEntry(name);
+                content = jarEntry != null ? JarPluginClassLoader.readJarEntry(jarFile, jarEntry) : null;
+            }
+            if (content == null) continue;
+            ClassMetadata metadata = parse(fileEntry.getFile(), content);
+            if (metadata != null) {
+                classes.add(metadata);
+            }
+        }
+        classes = Collections.unmodifiableList(classes);
+
+        if (cacheFile != null) {
+            try {
+                writeCache(cacheFile, classes);
+            } catch (IOException e) {
+                // The cache is optional; failing to write it only costs a parse on next scan.
+            }
+        }
+        return classes;
+    }
+
+    private static List<String> findClassEntries(JarFileEntry fileEntry) {
+        JarEntryIndex entryIndex = fileEntry.getEntryIndex();
+        List<String> names = new ArrayList<>();
+        if (fileEntry.isDirectory()) {
+            for (String name : fileEntry.getDirectoryIndex().names()) {
+                if (isClassEntry(name)) names.add(name);
+            }
+            return names;
+        }
+        if (entryIndex != null) {
+            for (String name : entryIndex.names()) {
+                if (isClassEntry(name)) names.add(name);
+            }
+            return names;
+        }
+        Enumeration<JarEntry> entries = fileEntry.getJarFile().entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (isClassEntry(name)) names.add(name);
+        }
+        return names;
+    }
+
+    private static boolean isClassEntry(String name) {
+        return name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class");
+    }
+
+    /**
+     * Parses the header, constant pool and class attributes of a class file.
+     *
+     * @return metadata, or null for module descriptors
+     */
+    public static ClassMetadata parse(File jarFile, byte[] classFile) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (input.readInt() != CLASS_MAGIC) {
+            throw new IOException("not a class file");
+        }
+        input.readUnsignedShort(); // minor_version
+        input.readUnsignedShort(); // major_version
+
+        int constantPoolCount = input.readUnsignedShort();
+        String[] utf8 = new String[constantPoolCount];
+        int[] classNameIndex = new int[constantPoolCount];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = input.readUTF();
+                    break;
+                case 7: // Class
+                    classNameIndex[i] = input.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skipFully(input, 2);
+                    break;
+                case 15: // MethodHandle
+                    skipFully(input, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skipFully(input, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skipFully(input, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("invalid constant pool tag: " + tag);
+            }
+        }
+
+        int access = input.readUnsignedShort();
+        if ((access & ACC_MODULE) != 0) {
+            return null;
+        }
+        String name = className(utf8, classNameIndex, input.readUnsignedShort());
+        int superIndex = input.readUnsignedShort();
+        String superName = superIndex != 0 ? className(utf8, classNameIndex, superIndex) : null;
+
+        int interfaceCount = input.readUnsignedShort();
+        List<String> interfaces = new ArrayList<>(interfaceCount);
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(className(utf8, classNameIndex, input.readUnsignedShort()));
+        }
+
+        skipMembers(input); // fields
+        skipMembers(input); // methods
+
+        List<String> annotations = new ArrayList<>();
+        int attributeCount = input.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = utf8(utf8, input.readUnsignedShort());
+            int length = input.readInt();
+            if ("RuntimeVisibleAnnotations".equals(attributeName) || "RuntimeInvisibleAnnotations".equals(attributeName)) {
+                int annotationCount = input.readUnsignedShort();
+                for (int j = 0; j < annotationCount; j++) {
+                    annotations.add(readAnnotation(input, utf8));
+                }
+            } else {
+                skipFully(input, length);
+            }
+        }
+
+        return new ClassMetadata(
+                jarFile,
+                name,
+                superName,
+                access,
+                Collections.unmodifiableList(interfaces),
+                Collections.unmodifiableList(annotations)
+        );
+    }
+
+    private static String className(String[] utf8, int[] classNameIndex, int index) throws IOException {
+        if (index <= 0 || index >= classNameIndex.length || utf8[classNameIndex[index]] == null) {
+            throw new IOException("invalid class reference: " + index);
+        }
+        return utf8[classNameIndex[index]].replace('/', '.');
+    }
+
+    private static String utf8(String[] utf8, int index) throws IOException {
+        if (index <= 0 || index >= utf8.length || utf8[index] == null) {
+            throw new IOException("invalid constant pool reference: " + index);
+        }
+        return utf8[index];
+    }
+
+    /**
+     * {@link DataInputStream#skipBytes(int)} stops early at the end of the data; a truncated
+     * class file must fail instead of yielding partial metadata.
+     */
+    private static void skipFully(DataInputStream input, int length) throws IOException {
+        if (length < 0 || input.skipBytes(length) != length) {
+            throw new EOFException("truncated class file");
+        }
+    }
+
+    private static void skipMembers(DataInputStream input) throws IOException {
+        int count = input.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skipFully(input, 6); // access_flags, name_index, descriptor_index
+            int attributeCount = input.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                skipFully(input, 2);
+                skipFully(input, input.readInt());
+            }
+        }
+    }
+
+    /**
+     * Reads an annotation and skips its element values.
+     *
+     * @return binary name of the annotation type
+     */
+    private static String readAnnotation(DataInputStream input, String[] utf8) throws IOException {
+        String descriptor = utf8(utf8, input.readUnsignedShort());
+        int pairCount = input.readUnsignedShort();
+        for (int i = 0; i < pairCount; i++) {
+            skipFully(input, 2); // element_name_index
+            skipElementValue(input, utf8);
+        }
+        if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+            descriptor = descriptor.substring(1, descriptor.length() - 1);
+        }
+        return descriptor.replace('/', '.');
+    }
+
+    private static void skipElementValue(DataInputStream input, String[] utf8) throws IOException {
+        int tag = input.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skipFully(input, 4);
+                break;
+            case '@':
+                readAnnotation(input, utf8);
+                break;
+            case '[':
+                int count = input.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(input, utf8);
+                }
+                break;
+            default:
+                skipFully(input, 2);
+                break;
+        }
+    }
+
+    static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream inputStream = new DigestInputStream(new FileInputStream(file), digest)) {
+            while (inputStream.read(buffer) > 0);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+    private static List<ClassMetadata> readCache(File jarFile, File cacheFile) {
+        if (!cacheFile.isFile()) return null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (input.readInt() != CACHE_MAGIC || input.readInt() != CACHE_VERSION) {
+                return null;
+            }
+            int count = input.readInt();
+            List<ClassMetadata> classes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = input.readUTF();
+                String superName = input.readBoolean() ? input.readUTF() : null;
+                int access = input.readInt();
+                List<String> interfaces = readStrings(input);
+                List<String> annotations = readStrings(input);
+                classes.add(new ClassMetadata(jarFile, name, superName, access, interfaces, annotations));
+            }
+            return Collections.unmodifiableList(classes);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(input.readUTF());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static void writeCache(File cacheFile, List<ClassMetadata> classes) throws IOException {
+        Path target = cacheFile.toPath();
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, cacheFile.getName(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(CACHE_MAGIC);
+                output.writeInt(CACHE_VERSION);
+                output.writeInt(classes.size());
+                for (ClassMetadata metadata : classes) {
+                    output.writeUTF(metadata.getName());
+                    output.writeBoolean(metadata.getSuperName() != null);
+                    if (metadata.getSuperName() != null) {
+                        output.writeUTF(metadata.getSuperName());
+                    }
+                    output.writeInt(metadata.getAccess());
+                    writeStrings(output, metadata.getInterfaces());
+                    writeStrings(output, metadata.getAnnotations());
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream output, List<String> values) throws IOException {
+        output.writeInt(values.size());
+        for (String value : values) {
+            output.writeUTF(value);
+        }
+    }
+}
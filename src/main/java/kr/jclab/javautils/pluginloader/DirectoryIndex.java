@@ -0,0 +1,123 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Sorted index of the files of an exploded plugin directory, using jar entry names
+ * ({@code /} separated, directories ending with {@code /}).
+ *
+ * Built once when the loader is created, so lookups never touch the file system.
+ */
+public final class DirectoryIndex {
+    private final Path root;
+    private final String[] names;
+    private final long[] sizes;
+
+    private DirectoryIndex(Path root, String[] names, long[] sizes) {
+        this.root = root;
+        this.names = names;
+        this.sizes = sizes;
+    }
+
+    public static DirectoryIndex build(File directory) throws IOException {
+        Path root = directory.toPath().toAbsolutePath();
+        TreeMap<String, Long> entries = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (path.equals(root)) continue;
+                StringBuilder name = new StringBuilder();
+                for (Path element : root.relativize(path)) {
+                    if (name.length() > 0) name.append('/');
+                    name.append(element.toString());
+                }
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isDirectory()) {
+                    entries.put(name.append('/').toString(), 0L);
+                } else if (attributes.isRegularFile()) {
+                    entries.put(name.toString(), attributes.size());
+                }
+            }
+        }
+
+        String[] names = new String[entries.size()];
+        long[] sizes = new long[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            names[i] = entry.getKey();
+            sizes[i] = entry.getValue();
+            i++;
+        }
+        return new DirectoryIndex(root, names, sizes);
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    public boolean contains(String name) {
+        return Arrays.binarySearch(this.names, name) >= 0;
+    }
+
+    /**
+     * @return size of the file, or -1 if there is no such entry
+     */
+    public long getSize(String name) {
+        int index = Arrays.binarySearch(this.names, name);
+        return index >= 0 ? this.sizes[index] : -1;
+    }
+
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(this.names));
+    }
+
+    /**
+     * @return all entry names starting with the prefix, in index order
+     */
+    public List<String> findNamesByPrefix(String prefix) {
+        int index = Arrays.binarySearch(this.names, prefix);
+        if (index < 0) index = -(index + 1);
+        List<String> result = new ArrayList<>();
+        for (; index < this.names.length && this.names[index].startsWith(prefix); index++) {
+            result.add(this.names[index]);
+        }
+        return result;
+    }
+
+    /**
+     * @return path of the entry, or null if there is no such entry
+     */
+    public Path resolve(String name) {
+        if (!this.contains(name)) return null;
+        return this.root.resolve(name);
+    }
+
+    /**
+     * @return content of the file, or null if there is no such file
+     */
+    public byte[] read(String name) throws IOException {
+        long size = this.getSize(name);
+        if (size < 0 || name.endsWith("/")) return null;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("entry too large: " + name);
+        }
+        try (FileChannel channel = FileChannel.open(this.root.resolve(name), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new EOFException(name);
+            }
+            return buffer.array();
+        }
+    }
+}
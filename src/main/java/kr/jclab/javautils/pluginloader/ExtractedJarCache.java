@@ -0,0 +1,189 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * One-time extraction of verified plugin jars into a cache directory.
+ *
+ * A jar is verified with the {@link JarVerifier} and extracted once. The extraction is keyed
+ * by the SHA-256 of the jar and completed by a {@code .verified} marker holding that hash and
+ * the certificate chains of the jar's signers, so later starts of the same jar skip the digest
+ * and signature checks and the inflation. The recorded chains are still passed to the
+ * verification handler of every later {@link #extract}, so an extraction accepted by one
+ * verifier is not trusted by a stricter one. The cache directory must only be writable by the
+ * process owner.
+ *
+ * An extraction with a valid marker is never replaced, so a directory returned to one caller is
+ * not deleted by a concurrent one. Extractions are moved into place under a {@code .lock} file
+ * lock shared by all processes using the cache.
+ */
+public final class ExtractedJarCache {
+    private static final String VERIFIED_SUFFIX = ".verified";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * A file lock is held per JVM, so threads of this one take a lock of their own first.
+     */
+    private static final ConcurrentHashMap<String, ReentrantLock> THREAD_LOCKS = new ConcurrentHashMap<>();
+
+    private final File directory;
+
+    public ExtractedJarCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return directory holding the verified content of the jar
+     * @throws SecurityException if the jar fails verification, also when the handler rejects
+     *                           the signers recorded by an earlier extraction
+     */
+    public File extract(File jarFile, JarVerifier jarVerifier) throws IOException, SecurityException {
+        String hash = ClassScanner.hashFile(jarFile);
+        File target = new File(this.directory, jarFile.getName() + "-" + hash.substring(0, 16));
+        Path marker = Paths.get(target.getPath() + VERIFIED_SUFFIX);
+        List<List<X509Certificate>> recordedChains = readMarker(target, marker, hash);
+        if (recordedChains != null) {
+            jarVerifier.verifySigners(recordedChains);
+            return target;
+        }
+
+        Files.createDirectories(this.directory.toPath());
+        Path temp = Files.createTempDirectory(this.directory.toPath(), target.getName());
+        try {
+            List<List<X509Certificate>> chains;
+            try (JarFile jar = new JarFile(jarFile)) {
+                chains = jarVerifier.verifySignatures(jar);
+                jarVerifier.verifySigners(chains);
+                extractAll(jar, temp);
+            }
+            if (!hash.equals(ClassScanner.hashFile(jarFile))) {
+                throw new IOException("jar file changed during extraction: " + jarFile);
+            }
+
+            ReentrantLock threadLock = THREAD_LOCKS.computeIfAbsent(target.getAbsolutePath(), key -> new ReentrantLock());
+            threadLock.lock();
+            try (FileChannel lockChannel = FileChannel.open(Paths.get(target.getPath() + LOCK_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                // The move fails on an existing directory with an exception type that depends
+                // on the platform, so check for it while holding the lock.
+                if (Files.exists(target.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    recordedChains = readMarker(target, marker, hash);
+                    if (recordedChains != null) {
+                        // completed concurrently; keep that one and drop ours
+                        jarVerifier.verifySigners(recordedChains);
+                        return target;
+                    }
+                    // left incomplete or damaged; nobody was given it
+                    Files.deleteIfExists(marker);
+                    deleteRecursively(target.toPath());
+                }
+                Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Path markerTemp = Files.createTempFile(this.directory.toPath(), target.getName(), VERIFIED_SUFFIX);
+                Files.write(markerTemp, formatMarker(hash, chains).getBytes(StandardCharsets.US_ASCII));
+                Files.move(markerTemp, marker, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                threadLock.unlock();
+            }
+        } finally {
+            deleteRecursively(temp);
+        }
+        return target;
+    }
+
+    /**
+     * Marker layout: the jar hash and the number of signers on the first line, then one line
+     * per signer with the Base64 DER certificates of its chain separated by commas.
+     */
+    private static String formatMarker(String hash, List<List<X509Certificate>> chains) throws IOException {
+        StringBuilder builder = new StringBuilder(hash).append(' ').append(chains.size()).append('\n');
+        try {
+            for (List<X509Certificate> chain : chains) {
+                for (int i = 0; i < chain.size(); i++) {
+                    if (i > 0) builder.append(',');
+                    builder.append(Base64.getEncoder().encodeToString(chain.get(i).getEncoded()));
+                }
+                builder.append('\n');
+            }
+        } catch (CertificateEncodingException e) {
+            throw new IOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return signer chains recorded for the extraction, or null if it is missing, incomplete
+     * or of another jar
+     */
+    private static List<List<X509Certificate>> readMarker(File target, Path marker, String hash) throws IOException {
+        if (!target.isDirectory() || !Files.isRegularFile(marker)) return null;
+        List<String> lines = Files.readAllLines(marker, StandardCharsets.US_ASCII);
+        if (lines.isEmpty() || !lines.get(0).equals(hash + " " + (lines.size() - 1))) return null;
+        List<List<X509Certificate>> chains = new ArrayList<>();
+        try {
+            for (String line : lines.subList(1, lines.size())) {
+                List<X509Certificate> chain = new ArrayList<>();
+                for (String encoded : line.split(",")) {
+                    chain.add(JarVerifier.decodeCertificate(Base64.getDecoder().decode(encoded)));
+                }
+                chains.add(chain);
+            }
+        } catch (CertificateException | IllegalArgumentException e) {
+            // damaged; extract again
+            return null;
+        }
+        return chains;
+    }
+
+    private static void extractAll(JarFile jar, Path destination) throws IOException {
+        Path root = destination.toAbsolutePath().normalize();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            Path path = root.resolve(entry.getName()).normalize();
+            if (!path.startsWith(root) || path.equals(root)) {
+                throw new IOException("invalid entry name: " + entry.getName());
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(path);
+                continue;
+            }
+            Files.createDirectories(path.getParent());
+            try (InputStream inputStream = jar.getInputStream(entry)) {
+                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return;
+        try (Stream<Path> paths = Files.walk(path)) {
+            Path[] ordered = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+            for (Path p : ordered) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compact, sorted index of the entries of a jar file.
+ *
+ * The index maps entry names to their local header offset, sizes and compression method.
+ * The loader uses it for prefix scans ({@code findResources}, services, package prefetch) and
+ * as the only lookup table once it is sealed; the jar itself is still opened and verified
+ * when the loader is created. The index can be persisted as a sidecar file and memory-mapped
+ * at startup. A persisted index is only used while the jar size, last-modified time and the
+ * central directory position recorded in the END header still match, which only needs a read
+ * of the jar's tail.
+ *
+ * Layout (big endian):
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   long   jar size
+ *   long   jar last modified
+ *   long   central directory offset
+ *   long   central directory length
+ *   int    entry count
+ *   int[entry count] record positions, sorted by name (unsigned UTF-8 byte order)
+ *   records: u2 name length, name, u2 method, long offset, long compressed size, long size, u4 crc
+ * </pre>
+ */
+public final class JarEntryIndex {
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x504c4958;
+    private static final int VERSION = 3;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8 + 8 + 4;
+    private static final int RECORD_FIXED_LENGTH = 2 + 2 + 8 + 8 + 8 + 4;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_LENGTH = 30;
+    private static final int EOCD_LENGTH = 22;
+    private static final int CEN_LENGTH = 46;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+    /**
+     * Where the sidecar file of a jar is stored.
+     */
+    public static final class Location {
+        private final File directory;
+
+        private Location(File directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Stores the index next to the jar as {@code <jar>.idx}.
+         */
+        public static Location sidecar() {
+            return new Location(null);
+        }
+
+        /**
+         * Stores the index in the given cache directory.
+         */
+        public static Location directory(File directory) {
+            return new Location(Objects.requireNonNull(directory));
+        }
+
+        public File resolve(File jarFile) {
+            if (this.directory == null) {
+                return new File(jarFile.getPath() + SIDECAR_SUFFIX);
+            }
+            String absolutePath = jarFile.getAbsolutePath();
+            String uniqueName = jarFile.getName() + "-" + Integer.toHexString(absolutePath.hashCode()) + SIDECAR_SUFFIX;
+            return new File(this.directory, uniqueName);
+        }
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final int method;
+        private final long offset;
+        private final long compressedSize;
+        private final long size;
+        private final int crc;
+
+        Entry(String name, int method, long offset, long compressedSize, long size, int crc) {
+            this.name = name;
+            this.method = method;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return compression method, {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return offset of the local file header in the jar
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return CRC-32 of the uncompressed data
+         */
+        public int getCrc() {
+            return crc;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+
+    private JarEntryIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("invalid jar entry index");
+        }
+        this.entryCount = buffer.getInt(HEADER_LENGTH - 4);
+        if (this.entryCount < 0 || HEADER_LENGTH + ((long) this.entryCount) * 4 > buffer.capacity()) {
+            throw new IOException("invalid jar entry index");
+        }
+    }
+
+    public int size() {
+        return this.entryCount;
+    }
+
+    public long getJarSize() {
+        return this.buffer.getLong(8);
+    }
+
+    public long getJarLastModified() {
+        return this.buffer.getLong(16);
+    }
+
+    public boolean contains(String name) {
+        return this.search(name.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    public Entry find(String name) {
+        int index = this.search(name.getBytes(StandardCharsets.UTF_8));
+        if (index < 0) return null;
+        return this.entryAt(index);
+    }
+
+    /**
+     * @return all entry names starting with the prefix, in index order
+     */
+    public List<String> findNamesByPrefix(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int index = this.search(key);
+        if (index < 0) index = -(index + 1);
+        List<String> names = new ArrayList<>();
+        for (; index < this.entryCount; index++) {
+            int position = this.recordPosition(index);
+            if (!this.startsWith(position, key)) break;
+            names.add(this.nameAt(position));
+        }
+        return names;
+    }
+
+    public List<String> names() {
+        List<String> names = new ArrayList<>(this.entryCount);
+        for (int i = 0; i < this.entryCount; i++) {
+            names.add(this.nameAt(this.recordPosition(i)));
+        }
+        return names;
+    }
+
+    /**
+     * @return bytes held by the index, on or off heap
+     */
+    public int getIndexBytes() {
+        return this.buffer.capacity();
+    }
+
+    /**
+     * Reads and inflates an entry directly from the jar file, without a {@link java.util.jar.JarFile}.
+     *
+     * The jar must still have the size and last-modified time recorded in the index, and the
+     * content is checked against the CRC-32 of the central directory.
+     *
+     * @return content of the entry, or null if the jar has no such entry
+     * @throws IOException if the jar cannot be read or has changed since it was indexed
+     */
+    public byte[] readEntry(File jarFile, String name) throws IOException {
+        Entry entry = this.find(name);
+        if (entry == null) return null;
+        if (entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE) {
+            throw new IOException("entry too large: " + name);
+        }
+        if (jarFile.length() != this.getJarSize() || jarFile.lastModified() != this.getJarLastModified()) {
+            throw new IOException("jar file changed since it was indexed: " + jarFile);
+        }
+
+        byte[] content;
+        try (FileChannel channel = FileChannel.open(jarFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer localHeader = ByteBuffer.allocate(LOC_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, localHeader, entry.getOffset());
+            if (localHeader.getInt(0) != LOC_SIGNATURE) {
+                throw new IOException("invalid local header: " + name);
+            }
+            long dataOffset = entry.getOffset() + LOC_LENGTH
+                    + (localHeader.getShort(26) & 0xffff)
+                    + (localHeader.getShort(28) & 0xffff);
+            // One extra byte: the inflater in nowrap mode may need a dummy byte after the data.
+            byte[] compressed = new byte[(int) entry.getCompressedSize() + 1];
+            readFully(channel, ByteBuffer.wrap(compressed, 0, compressed.length - 1), dataOffset);
+
+            if (entry.getMethod() == ZipEntry.STORED) {
+                content = Arrays.copyOf(compressed, compressed.length - 1);
+            } else if (entry.getMethod() == ZipEntry.DEFLATED) {
+                content = new byte[(int) entry.getSize()];
+                Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(compressed);
+                    int position = 0;
+                    while (position < content.length) {
+                        int count = inflater.inflate(content, position, content.length - position);
+                        if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        position += count;
+                    }
+                    if (position != content.length) {
+                        throw new IOException("entry read failed: " + name);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException(e);
+                } finally {
+                    inflater.end();
+                }
+            } else {
+                throw new IOException("unsupported compression method " + entry.getMethod() + ": " + name);
+            }
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, 0, content.length);
+        if ((int) crc32.getValue() != entry.getCrc()) {
+            throw new IOException("CRC mismatch: " + name);
+        }
+        return content;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) throw new EOFException();
+            position += count;
+        }
+    }
+
+    /**
+     * @return length of the central directory of the jar
+     */
+    static long centralDirectoryLength(File jarFile) throws IOException {
+        try (RandomAccessFile jar = new RandomAccessFile(jarFile, "r")) {
+            return CentralDirectory.locate(jar).length;
+        }
+    }
+
+    /**
+     * Loads the persisted index of the jar if it is still valid, otherwise rebuilds it from
+     * the jar's central directory and tries to persist it.
+     *
+     * @param jarFile   jar file
+     * @param indexFile persisted index file
+     * @return index of the jar
+     * @throws IOException if the jar cannot be read
+     */
+    public static JarEntryIndex loadOrBuild(File jarFile, File indexFile) throws IOException {
+        try (RandomAccessFile jar = new RandomAccessFile(jarFile, "r")) {
+            CentralDirectory centralDirectory = CentralDirectory.locate(jar);
+
+            JarEntryIndex index = load(indexFile);
+            if (index != null && index.matches(jarFile, centralDirectory)) {
+                return index;
+            }
+
+            index = new JarEntryIndex(build(jarFile, centralDirectory));
+            try {
+                index.write(indexFile);
+            } catch (IOException e) {
+                // The index is optional; a read-only location only costs the rebuild on next startup.
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Builds the index from the jar's central directory without persisting it.
+     */
+    public static JarEntryIndex build(File jarFile) throws IOException {
+        try (RandomAccessFile jar = new RandomAccessFile(jarFile, "r")) {
+            CentralDirectory centralDirectory = CentralDirectory.locate(jar);
+            return new JarEntryIndex(build(jarFile, centralDirectory));
+        }
+    }
+
+    /**
+     * Memory-maps a persisted index.
+     *
+     * @return index, or null if the file does not exist or is not an index
+     */
+    public static JarEntryIndex load(File indexFile) {
+        if (!indexFile.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new JarEntryIndex(mapped.order(ByteOrder.BIG_ENDIAN));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void write(File indexFile) throws IOException {
+        Path target = indexFile.toPath();
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, indexFile.getName(), ".tmp");
+        try {
+            ByteBuffer source = this.buffer.duplicate();
+            source.clear();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private boolean matches(File jarFile, CentralDirectory centralDirectory) {
+        return this.getJarSize() == jarFile.length()
+                && this.getJarLastModified() == jarFile.lastModified()
+                && this.buffer.getLong(24) == centralDirectory.offset
+                && this.buffer.getLong(32) == centralDirectory.length;
+    }
+
+    private int recordPosition(int index) {
+        return this.buffer.getInt(HEADER_LENGTH + index * 4);
+    }
+
+    private String nameAt(int position) {
+        int length = this.buffer.getShort(position) & 0xffff;
+        byte[] name = new byte[length];
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(position + 2);
+        view.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private Entry entryAt(int index) {
+        int position = this.recordPosition(index);
+        int nameLength = this.buffer.getShort(position) & 0xffff;
+        int fields = position + 2 + nameLength;
+        return new Entry(
+                this.nameAt(position),
+                this.buffer.getShort(fields) & 0xffff,
+                this.buffer.getLong(fields + 2),
+                this.buffer.getLong(fields + 10),
+                this.buffer.getLong(fields + 18),
+                this.buffer.getInt(fields + 26)
+        );
+    }
+
+    private int compareName(int position, byte[] key) {
+        int length = this.buffer.getShort(position) & 0xffff;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int a = this.buffer.get(position + 2 + i) & 0xff;
+            int b = key[i] & 0xff;
+            if (a != b) return a - b;
+        }
+        return length - key.length;
+    }
+
+    private boolean startsWith(int position, byte[] key) {
+        int length = this.buffer.getShort(position) & 0xffff;
+        if (length < key.length) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (this.buffer.get(position + 2 + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the key, or {@code -(insertion point) - 1}
+     */
+    private int search(byte[] key) {
+        int low = 0;
+        int high = this.entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.compareName(this.recordPosition(mid), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    private static ByteBuffer build(File jarFile, CentralDirectory centralDirectory) throws IOException {
+        List<Entry> entries = centralDirectory.entries();
+        List<byte[]> names = new ArrayList<>(entries.size());
+        Integer[] order = new Integer[entries.size()];
+        long recordsLength = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] name = entries.get(i).name.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            order[i] = i;
+            recordsLength += RECORD_FIXED_LENGTH + name.length;
+        }
+        Arrays.sort(order, (a, b) -> compareBytes(names.get(a), names.get(b)));
+
+        long totalLength = HEADER_LENGTH + ((long) entries.size()) * 4 + recordsLength;
+        if (totalLength > Integer.MAX_VALUE) {
+            throw new IOException("jar entry index too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) totalLength);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(jarFile.length());
+        buffer.putLong(jarFile.lastModified());
+        buffer.putLong(centralDirectory.offset);
+        buffer.putLong(centralDirectory.length);
+        buffer.putInt(entries.size());
+
+        int recordPosition = HEADER_LENGTH + entries.size() * 4;
+        int previous = -1;
+        int count = 0;
+        for (Integer i : order) {
+            // Duplicate names are not valid in a jar; the first one wins like in ZipFile.
+            if (previous >= 0 && compareBytes(names.get(previous), names.get(i)) == 0) continue;
+            previous = i;
+            Entry entry = entries.get(i);
+            byte[] name = names.get(i);
+            buffer.putInt(HEADER_LENGTH + count * 4, recordPosition);
+            buffer.putShort(recordPosition, (short) name.length);
+            for (int j = 0; j < name.length; j++) {
+                buffer.put(recordPosition + 2 + j, name[j]);
+            }
+            int fields = recordPosition + 2 + name.length;
+            buffer.putShort(fields, (short) entry.method);
+            buffer.putLong(fields + 2, entry.offset);
+            buffer.putLong(fields + 10, entry.compressedSize);
+            buffer.putLong(fields + 18, entry.size);
+            buffer.putInt(fields + 26, entry.crc);
+            recordPosition = fields + 30;
+            count++;
+        }
+        buffer.putInt(HEADER_LENGTH - 4, count);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Raw view of the central directory of a zip file.
+     */
+    static final class CentralDirectory {
+        private final RandomAccessFile file;
+        private final long offset;
+        private final long length;
+
+        private CentralDirectory(RandomAccessFile file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static CentralDirectory locate(RandomAccessFile file) throws IOException {
+            long fileLength = file.length();
+            // Jars rarely have a comment, so try the last END header length first.
+            int tailLength = (int) Math.min(fileLength, EOCD_LENGTH);
+            ByteBuffer tailBuffer = readTail(file, tailLength);
+            int eocd = tailLength == EOCD_LENGTH ? findEndHeader(tailBuffer, tailLength) : -1;
+            if (eocd < 0) {
+                tailLength = (int) Math.min(fileLength, EOCD_LENGTH + MAX_COMMENT_LENGTH);
+                tailBuffer = readTail(file, tailLength);
+                eocd = findEndHeader(tailBuffer, tailLength);
+            }
+            if (eocd < 0) {
+                throw new IOException("zip END header not found");
+            }
+
+            long cdLength = tailBuffer.getInt(eocd + 12) & 0xffffffffL;
+            long cdOffset = tailBuffer.getInt(eocd + 16) & 0xffffffffL;
+            long eocdPosition = fileLength - tailLength + eocd;
+            if ((cdLength == 0xffffffffL || cdOffset == 0xffffffffL) && eocdPosition >= 20) {
+                byte[] locator = new byte[20];
+                file.seek(eocdPosition - 20);
+                file.readFully(locator);
+                ByteBuffer locatorBuffer = ByteBuffer.wrap(locator).order(ByteOrder.LITTLE_ENDIAN);
+                if (locatorBuffer.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    byte[] zip64 = new byte[56];
+                    file.seek(locatorBuffer.getLong(8));
+                    file.readFully(zip64);
+                    ByteBuffer zip64Buffer = ByteBuffer.wrap(zip64).order(ByteOrder.LITTLE_ENDIAN);
+                    if (zip64Buffer.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                        throw new IOException("invalid zip64 END header");
+                    }
+                    cdLength = zip64Buffer.getLong(40);
+                    cdOffset = zip64Buffer.getLong(48);
+                }
+            }
+            if (cdLength > Integer.MAX_VALUE || cdOffset + cdLength > fileLength) {
+                throw new IOException("invalid central directory");
+            }
+            return new CentralDirectory(file, cdOffset, cdLength);
+        }
+
+        private static ByteBuffer readTail(RandomAccessFile file, int tailLength) throws IOException {
+            byte[] tail = new byte[tailLength];
+            file.seek(file.length() - tailLength);
+            file.readFully(tail);
+            return ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static int findEndHeader(ByteBuffer tailBuffer, int tailLength) {
+            for (int i = tailLength - EOCD_LENGTH; i >= 0; i--) {
+                if (tailBuffer.getInt(i) == EOCD_SIGNATURE) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private byte[] read() throws IOException {
+            byte[] data = new byte[(int) this.length];
+            this.file.seek(this.offset);
+            this.file.readFully(data);
+            return data;
+        }
+
+        List<Entry> entries() throws IOException {
+            ByteBuffer cen = ByteBuffer.wrap(this.read()).order(ByteOrder.LITTLE_ENDIAN);
+            List<Entry> entries = new ArrayList<>();
+            int position = 0;
+            while (position + CEN_LENGTH <= cen.capacity()) {
+                if (cen.getInt(position) != CEN_SIGNATURE) {
+                    throw new IOException("invalid central directory header");
+                }
+                int method = cen.getShort(position + 10) & 0xffff;
+                int crc = cen.getInt(position + 16);
+                long compressedSize = cen.getInt(position + 20) & 0xffffffffL;
+                long size = cen.getInt(position + 24) & 0xffffffffL;
+                int nameLength = cen.getShort(position + 28) & 0xffff;
+                int extraLength = cen.getShort(position + 30) & 0xffff;
+                int commentLength = cen.getShort(position + 32) & 0xffff;
+                long localOffset = cen.getInt(position + 42) & 0xffffffffL;
+
+                byte[] name = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = cen.get(position + CEN_LENGTH + i);
+                }
+
+                int extra = position + CEN_LENGTH + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int tag = cen.getShort(extra) & 0xffff;
+                    int dataLength = cen.getShort(extra + 2) & 0xffff;
+                    if (tag == 0x0001) {
+                        int field = extra + 4;
+                        if (size == 0xffffffffL) {
+                            size = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xffffffffL) {
+                            compressedSize = cen.getLong(field);
+                            field += 8;
+                        }
+                        if (localOffset == 0xffffffffL) {
+                            localOffset = cen.getLong(field);
+                        }
+                    }
+                    extra += 4 + dataLength;
+                }
+
+                entries.add(new Entry(new String(name, StandardCharsets.UTF_8), method, localOffset, compressedSize, size, crc));
+                position = extraEnd + commentLength;
+            }
+            return entries;
+        }
+    }
+}
@@ -7,17 +7,47 @@ public class JarFileEntry implements Cloneable {
     private final File file;
     private final JarFile jarFile;
     private final String baseUrl;
+    private final JarEntryIndex entryIndex;
+    private final DirectoryIndex directoryIndex;
+    private final ManifestDigests manifestDigests;
 
     public JarFileEntry(File file, JarFile jarFile) {
+        this(file, jarFile, null);
+    }
+
+    public JarFileEntry(File file, JarFile jarFile, JarEntryIndex entryIndex) {
+        this(file, jarFile, entryIndex, null);
+    }
+
+    JarFileEntry(File file, JarFile jarFile, JarEntryIndex entryIndex, ManifestDigests manifestDigests) {
         this.file = file;
         this.jarFile = jarFile;
         this.baseUrl = "jar:" + file.toURI().toString() + "!";
+        this.entryIndex = entryIndex;
+        this.directoryIndex = null;
+        this.manifestDigests = manifestDigests;
+    }
+
+    /**
+     * Exploded plugin directory.
+     */
+    public JarFileEntry(File directory, DirectoryIndex directoryIndex) {
+        String uri = directory.toURI().toString();
+        this.file = directory;
+        this.jarFile = null;
+        this.baseUrl = uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+        this.entryIndex = null;
+        this.directoryIndex = directoryIndex;
+        this.manifestDigests = null;
     }
 
     public File getFile() {
         return file;
     }
 
+    /**
+     * @return the jar file, or null for an exploded directory
+     */
     public JarFile getJarFile() {
         return jarFile;
     }
@@ -26,8 +56,36 @@ public class JarFileEntry implements Cloneable {
         return baseUrl;
     }
 
+    /**
+     * @return entry index of the jar, or null if the loader was created without one
+     */
+    public JarEntryIndex getEntryIndex() {
+        return entryIndex;
+    }
+
+    /**
+     * @return entry digests of the signed manifest kept on seal(), or null
+     */
+    ManifestDigests getManifestDigests() {
+        return manifestDigests;
+    }
+
+    public boolean isDirectory() {
+        return directoryIndex != null;
+    }
+
+    /**
+     * @return path index of an exploded directory, or null for a jar file
+     */
+    public DirectoryIndex getDirectoryIndex() {
+        return directoryIndex;
+    }
+
     @Override
     public JarFileEntry clone() {
-        return new JarFileEntry(this.file, this.jarFile);
+        if (this.directoryIndex != null) {
+            return new JarFileEntry(this.file, this.directoryIndex);
+        }
+        return new JarFileEntry(this.file, this.jarFile, this.entryIndex, this.manifestDigests);
     }
 }
@@ -5,13 +5,23 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
 import java.security.*;
 import java.util.*;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
+/**
+ * Subclasses must call {@link ClassLoader#registerAsParallelCapable()} in a static initializer.
+ * Otherwise the loader locks itself as a whole while loading a class, and plugins whose
+ * classes refer to each other through {@link ProxyClassLoader}s can deadlock.
+ */
 public class JarPluginClassLoader extends SecureClassLoader implements Closeable {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     public static class JarEntryWithFile {
         public final JarFileEntry fileEntry;
         public final JarEntry jarEntry;
@@ -24,7 +34,7 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
 
     private final Logger logger;
     private final JarVerifier jarVerifier;
-    private final List<JarFileEntry> jarFiles;
+    private volatile List<JarFileEntry> jarFiles;
 
     /**
      * The context to be used when loading classes and resources
@@ -37,6 +47,18 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
     private char classNameReplacementChar = 0;
     protected final Map<String, Class<?>> classes = Collections.synchronizedMap(new HashMap<>());
     private final WeakHashMap<Closeable,Void> closeables = new WeakHashMap<>();
+    private final LoaderLocks locks = new LoaderLocks(this);
+    private final PluginURLStreamHandler urlStreamHandler = new PluginURLStreamHandler(this);
+    private volatile boolean closed = false;
+    private volatile boolean sealed = false;
+
+    /**
+     * Estimated per-entry size of the lookup table a {@link JarFile} keeps next to its central directory.
+     */
+    private static final int JAR_FILE_ENTRY_OVERHEAD = 12;
+    private volatile ResourceCache resourceCache = null;
+    private volatile ClassPrefetcher classPrefetcher = null;
+    private volatile ServiceIndex serviceIndex = null;
 
     private final ParentLoader parentLoader = new ParentLoader();
     private final LocalLoader localLoader = new LocalLoader();
@@ -49,6 +71,31 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
     }
 
     public JarPluginClassLoader(List<File> files, ClassLoader parent, JarVerifier jarVerifier, AccessControlContext acc, Logger logger) throws IOException, SecurityException {
+        this(files, parent, jarVerifier, acc, logger, null);
+    }
+
+    /**
+     * The entry index serves prefix scans and the lookups of a sealed loader; the jars are still
+     * opened and verified here.
+     *
+     * @param entryIndexLocation where to persist the entry index of each jar, or null to not use entry indexes
+     */
+    public JarPluginClassLoader(List<File> files, ClassLoader parent, JarVerifier jarVerifier, AccessControlContext acc, Logger logger, JarEntryIndex.Location entryIndexLocation) throws IOException, SecurityException {
+        this(files, parent, jarVerifier, acc, logger, entryIndexLocation, null);
+    }
+
+    /**
+     * Directories in {@code files} are loaded as exploded plugins; they carry no signatures and
+     * are only accepted if the verification handler accepts unsigned content.
+     *
+     * Jars taken from the extracted jar cache are loaded as directories too: their signers are
+     * checked by the verifier on every load, but {@link #getProtectionDomain(String, JarFile, JarEntry)}
+     * receives a null jar file and entries without code signers.
+     *
+     * @param entryIndexLocation where to persist the entry index of each jar, or null to not use entry indexes
+     * @param extractedJarCache  cache to extract verified jars into and load them from, or null to load from the jars
+     */
+    public JarPluginClassLoader(List<File> files, ClassLoader parent, JarVerifier jarVerifier, AccessControlContext acc, Logger logger, JarEntryIndex.Location entryIndexLocation, ExtractedJarCache extractedJarCache) throws IOException, SecurityException {
         super(parent);
         checkSecurityCreateClassLoader();
 
@@ -62,9 +109,23 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         ArrayList<JarFileEntry> jarFiles = new ArrayList<>();
         jarFiles.ensureCapacity(files.size());
         for (File file : files) {
+            if (file.isDirectory()) {
+                jarVerifier.verifyUnsigned();
+                jarFiles.add(new JarFileEntry(file, DirectoryIndex.build(file)));
+                continue;
+            }
+            if (extractedJarCache != null) {
+                File directory = extractedJarCache.extract(file, jarVerifier);
+                jarFiles.add(new JarFileEntry(directory, DirectoryIndex.build(directory)));
+                continue;
+            }
             JarFile jarFile = new JarFile(file);
             jarVerifier.verify(jarFile);
-            jarFiles.add(new JarFileEntry(file, jarFile));
+            JarEntryIndex entryIndex = null;
+            if (entryIndexLocation != null) {
+                entryIndex = JarEntryIndex.loadOrBuild(file, entryIndexLocation.resolve(file));
+            }
+            jarFiles.add(new JarFileEntry(file, jarFile, entryIndex));
         }
         this.jarFiles = Collections.unmodifiableList(jarFiles);
 
@@ -89,6 +150,127 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         return lock;
     }
 
+    /**
+     * Enables caching of small resource contents for {@link #getResourceAsStream(String)}.
+     * The cache may be shared with other loaders; entries are kept apart per loader and the
+     * entries of this loader are removed when it is closed.
+     *
+     * @param resourceCache cache to use, or null to disable
+     */
+    public void setResourceCache(ResourceCache resourceCache) {
+        if (this.lock) throw new IllegalStateException("locked");
+        this.resourceCache = resourceCache;
+    }
+
+    public ResourceCache getResourceCache() {
+        return this.resourceCache;
+    }
+
+    /**
+     * Enables reading all classes of a package in one pass when its first class is loaded.
+     *
+     * @param classPrefetcher prefetcher to use, or null to disable
+     */
+    public void setClassPrefetcher(ClassPrefetcher classPrefetcher) {
+        if (this.lock) throw new IllegalStateException("locked");
+        this.classPrefetcher = classPrefetcher;
+    }
+
+    public ClassPrefetcher getClassPrefetcher() {
+        return this.classPrefetcher;
+    }
+
+    public final boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Closes the jar files of a locked, warmed-up loader and keeps only a compact entry index
+     * per jar. Later lookups are answered from the index and the rare entries still needed are
+     * read directly from the jar files on demand.
+     *
+     * After sealing, {@link JarFileEntry#getJarFile()} returns closed jar files, streams opened
+     * from the jars before are closed, {@link #getProtectionDomain(String, JarFile, JarEntry)}
+     * receives a null jar file, and {@link #scanClasses()} is no longer available. The service
+     * index is built before the jars are closed. Entries read later are checked against the
+     * CRC-32 of the index and, for signed entries, against the digests of the signed manifest.
+     *
+     * @return how much memory was released
+     * @throws IllegalStateException if the loader is not locked or already sealed
+     * @throws IOException if an index cannot be built or a jar changed since it was verified
+     */
+    public SealReport seal() throws IOException {
+        if (!this.lock) throw new IllegalStateException("not locked");
+        return this.locks.withLoaderLock(() -> {
+            if (this.sealed) throw new IllegalStateException("sealed");
+
+            List<JarFileEntry> sealedJarFiles = new ArrayList<>(this.jarFiles.size());
+            long entryCount = 0;
+            long releasedBytes = 0;
+            long retainedBytes = 0;
+            for (JarFileEntry entry : this.jarFiles) {
+                if (entry.isDirectory()) {
+                    sealedJarFiles.add(entry);
+                    continue;
+                }
+                JarFile jarFile = entry.getJarFile();
+                JarEntryIndex entryIndex = entry.getEntryIndex();
+                if (entryIndex == null) {
+                    entryIndex = JarEntryIndex.build(entry.getFile());
+                }
+                // The index is read from disk; make sure it still describes the verified jar.
+                if (entryIndex.size() != jarFile.size()) {
+                    throw new IOException("jar file changed since it was verified: " + entry.getFile());
+                }
+                Enumeration<JarEntry> jarEntries = jarFile.entries();
+                while (jarEntries.hasMoreElements()) {
+                    JarEntry jarEntry = jarEntries.nextElement();
+                    JarEntryIndex.Entry indexEntry = entryIndex.find(jarEntry.getName());
+                    if (indexEntry == null || (indexEntry.getCrc() & 0xffffffffL) != jarEntry.getCrc()) {
+                        throw new IOException("jar file changed since it was verified: " + entry.getFile());
+                    }
+                }
+                ManifestDigests manifestDigests = ManifestDigests.of(jarFile);
+                entryCount += entryIndex.size();
+                releasedBytes += JarEntryIndex.centralDirectoryLength(entry.getFile()) + ((long) jarFile.size()) * JAR_FILE_ENTRY_OVERHEAD;
+                retainedBytes += entryIndex.getIndexBytes() + (manifestDigests != null ? manifestDigests.getBytes() : 0);
+                sealedJarFiles.add(new JarFileEntry(entry.getFile(), jarFile, entryIndex, manifestDigests));
+            }
+
+            if (this.serviceIndex == null) {
+                this.serviceIndex = ServiceIndex.build(this.jarFiles);
+            }
+
+            List<JarFileEntry> openJarFiles = this.jarFiles;
+            this.jarFiles = Collections.unmodifiableList(sealedJarFiles);
+            this.sealed = true;
+            ClassPrefetcher classPrefetcher = this.classPrefetcher;
+            if (classPrefetcher != null) {
+                classPrefetcher.clear();
+            }
+
+            List<IOException> errors = new LinkedList<>();
+            for (JarFileEntry entry : openJarFiles) {
+                if (entry.isDirectory()) continue;
+                try {
+                    entry.getJarFile().close();
+                } catch (IOException e) {
+                    errors.add(e);
+                }
+            }
+            SealReport report = new SealReport(sealedJarFiles.size(), entryCount, releasedBytes, retainedBytes);
+            this.logger.debug("sealed: " + report);
+            if (!errors.isEmpty()) {
+                IOException firstex = errors.remove(0);
+                for (IOException error : errors) {
+                    firstex.addSuppressed(error);
+                }
+                throw firstex;
+            }
+            return report;
+        });
+    }
+
     public void addLoader(ProxyClassLoader loader) {
         if (this.lock) throw new IllegalStateException("locked");
         this.loaders.add(loader);
@@ -103,7 +285,26 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         return localLoader;
     }
 
-    private JarFileEntry findJarFileEntryByUrl(URL url) throws MalformedURLException {
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the exploded directory containing the file URL and the entry name, or null
+     */
+    JarEntryWithFile findDirectoryEntryByUrl(URL url) {
+        String spec = url.toString();
+        for (JarFileEntry entry : this.jarFiles) {
+            if (!entry.isDirectory()) continue;
+            String prefix = entry.getBaseUrl() + "/";
+            if (spec.startsWith(prefix)) {
+                return this.findJarEntryInFile(entry, spec.substring(prefix.length()));
+            }
+        }
+        return null;
+    }
+
+    JarFileEntry findJarFileEntryByUrl(URL url) throws MalformedURLException {
         for (JarFileEntry entry : this.jarFiles) {
             URL entryUrl = entry.getFile().toURI().toURL();
             if (url.equals(entryUrl)) {
@@ -113,6 +314,78 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         return null;
     }
 
+    /**
+     * @return the service providers declared in the jars, built on first use
+     */
+    public ServiceIndex getServiceIndex() throws IOException {
+        ServiceIndex serviceIndex = this.serviceIndex;
+        if (serviceIndex == null) {
+            serviceIndex = this.locks.withLoaderLock(() -> {
+                ServiceIndex current = this.serviceIndex;
+                if (current == null) {
+                    current = ServiceIndex.build(this.jarFiles);
+                    this.serviceIndex = current;
+                }
+                return current;
+            });
+        }
+        return serviceIndex;
+    }
+
+    public List<String> getServiceProviderNames(Class<?> service) throws IOException {
+        return this.getServiceIndex().getProviderNames(service.getName());
+    }
+
+    /**
+     * Like {@link ServiceLoader#load(Class, ClassLoader)} for the providers declared in the jars,
+     * without scanning resources. Providers are loaded and instantiated lazily while iterating.
+     */
+    public <S> Iterable<S> loadServices(Class<S> service) throws IOException {
+        final List<String> providerNames = this.getServiceProviderNames(service);
+        return () -> new Iterator<S>() {
+            private final Iterator<String> iterator = providerNames.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return this.iterator.hasNext();
+            }
+
+            @Override
+            public S next() {
+                String providerName = this.iterator.next();
+                Class<?> clazz;
+                try {
+                    clazz = Class.forName(providerName, false, JarPluginClassLoader.this);
+                } catch (ClassNotFoundException e) {
+                    throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " not found", e);
+                }
+                if (!service.isAssignableFrom(clazz)) {
+                    throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " not a subtype");
+                }
+                try {
+                    return service.cast(clazz.getDeclaredConstructor().newInstance());
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    throw new ServiceConfigurationError(service.getName() + ": Provider " + providerName + " could not be instantiated", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the metadata of all classes in the jars without defining them.
+     */
+    public List<ClassMetadata> scanClasses() throws IOException {
+        return this.scanClasses(null);
+    }
+
+    /**
+     * @param cacheDirectory directory to persist scan results in, keyed by jar hash, or null
+     */
+    public List<ClassMetadata> scanClasses(File cacheDirectory) throws IOException {
+        if (this.sealed) throw new IllegalStateException("sealed");
+        return new ClassScanner(cacheDirectory).scan(this.jarFiles);
+    }
+
     @Override
     public URL getResource(String name) {
         Objects.requireNonNull(name);
@@ -125,42 +398,73 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
 
     @Override
     protected Enumeration<URL> findResources(String name) throws IOException {
+        if (this.closed) return Collections.emptyEnumeration();
         return new FindResourceEnumeration(name);
     }
 
     public InputStream getResourceAsStream(String name) {
+        ResourceCache resourceCache = this.resourceCache;
+        if (resourceCache != null) {
+            byte[] content = resourceCache.get(this, name);
+            if (content != null) {
+                return new ByteArrayInputStream(content);
+            }
+        }
         URL url = getResource(name);
         try {
             if (url == null) {
                 return null;
             }
             URLConnection urlConnection = url.openConnection();
-            if (urlConnection instanceof JarURLConnection) {
+            JarEntryWithFile jarEntry = null;
+            if (urlConnection instanceof PluginURLStreamHandler.PluginURLConnection) {
+                jarEntry = ((PluginURLStreamHandler.PluginURLConnection) urlConnection).findPluginEntry();
+            } else if (urlConnection instanceof JarURLConnection) {
                 JarURLConnection jarURLConnection = (JarURLConnection) urlConnection;
                 JarFileEntry jarFileEntry = this.findJarFileEntryByUrl(jarURLConnection.getJarFileURL());
                 if (jarFileEntry != null) {
-                    JarEntry jarEntry = jarFileEntry.getJarFile().getJarEntry(jarURLConnection.getEntryName());
-                    if (jarEntry == null) return null;
-                    InputStream inputStream = jarFileEntry.getJarFile().getInputStream(jarEntry);
-                    synchronized (closeables) {
-                        closeables.put(inputStream, null);
-                    }
-                    return inputStream;
+                    jarEntry = this.findJarEntryInFile(jarFileEntry, jarURLConnection.getEntryName());
                 }
             }
-            return null;
+            if (jarEntry == null) return null;
+            if (resourceCache != null && resourceCache.accepts(jarEntry.jarEntry.getSize())) {
+                byte[] content = this.loadJarEntryContent(jarEntry);
+                if (!this.closed) {
+                    resourceCache.put(this, name, content);
+                    // close() may have invalidated the cache before the put
+                    if (this.closed) resourceCache.invalidate(this);
+                }
+                return new ByteArrayInputStream(content);
+            }
+            return this.openJarEntryInputStream(jarEntry);
         } catch (IOException e) {
-            logger.warn("getResourceAsStream", e);
+            if (!this.closed) {
+                logger.warn("getResourceAsStream", e);
+            }
             return null;
         }
     }
 
+    void registerCloseable(Closeable closeable) throws IOException {
+        boolean registered = this.locks.withCloseablesLock(() -> {
+            // close() sets closed before it sweeps the closeables under this lock
+            if (this.closed) return false;
+            closeables.put(closeable, null);
+            return true;
+        });
+        if (!registered) {
+            closeable.close();
+            throw new IOException("class loader closed");
+        }
+    }
+
     @Override
     public void close() throws IOException {
         SecurityManager security = System.getSecurityManager();
         if (security != null) {
             security.checkPermission(new RuntimePermission("closeClassLoader"));
         }
+        this.closed = true;
         List<IOException> errors = new LinkedList<>();
 
         for (ProxyClassLoader loader : this.loaders) {
@@ -172,7 +476,7 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         }
 
         // now close any remaining streams.
-        synchronized (this.closeables) {
+        this.locks.withCloseablesLock(() -> {
             Set<Closeable> keys = this.closeables.keySet();
             for (Closeable c : keys) {
                 try {
@@ -182,6 +486,25 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
                 }
             }
             this.closeables.clear();
+            return null;
+        });
+
+        for (JarFileEntry jarFileEntry : this.jarFiles) {
+            if (jarFileEntry.isDirectory()) continue;
+            try {
+                jarFileEntry.getJarFile().close();
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        }
+
+        ResourceCache resourceCache = this.resourceCache;
+        if (resourceCache != null) {
+            resourceCache.invalidate(this);
+        }
+        ClassPrefetcher classPrefetcher = this.classPrefetcher;
+        if (classPrefetcher != null) {
+            classPrefetcher.clear();
         }
 
         if (errors.isEmpty()) {
@@ -217,7 +540,7 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
 
     @Override
     protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        synchronized (getClassLoadingLock(name)) {
+        return this.locks.withClassLoadingLock(name, () -> {
             Class<?> clazz;
             ClassNotFoundException lastException = null;
             for (ProxyClassLoader loader : this.loaders) {
@@ -239,7 +562,11 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
                 lastException = new ClassNotFoundException("class not found");
             }
             throw lastException;
-        }
+        });
+    }
+
+    final Object classLoadingLock(String name) {
+        return this.getClassLoadingLock(name);
     }
 
     protected String formatClassName(String className) {
@@ -262,6 +589,14 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
     }
 
     public static JarPluginClassLoader newInstance(final List<File> files, final ClassLoader parent, final JarVerifier jarVerifier) throws IOException, SecurityException {
+        return newInstance(files, parent, jarVerifier, null);
+    }
+
+    public static JarPluginClassLoader newInstance(final List<File> files, final ClassLoader parent, final JarVerifier jarVerifier, final JarEntryIndex.Location entryIndexLocation) throws IOException, SecurityException {
+        return newInstance(files, parent, jarVerifier, entryIndexLocation, null);
+    }
+
+    public static JarPluginClassLoader newInstance(final List<File> files, final ClassLoader parent, final JarVerifier jarVerifier, final JarEntryIndex.Location entryIndexLocation, final ExtractedJarCache extractedJarCache) throws IOException, SecurityException {
         // Save the caller's context
         final AccessControlContext acc = AccessController.getContext();
         // Need a privileged block to create the class loader
@@ -270,7 +605,7 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
                     new PrivilegedAction<JarPluginClassLoader>() {
                         public JarPluginClassLoader run() {
                             try {
-                                return new JarPluginClassLoader(files, parent, jarVerifier, acc, null);
+                                return new JarPluginClassLoader(files, parent, jarVerifier, acc, null, entryIndexLocation, extractedJarCache);
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
@@ -288,32 +623,151 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
     private URL toUrl(JarFileEntry jarFileEntry, String name) throws MalformedURLException {
         String absName = name;
         if (!absName.startsWith("/")) absName = "/" + absName;
-        return new URL(jarFileEntry.getBaseUrl() + absName);
+        String baseUrl = jarFileEntry.getBaseUrl();
+        final String protocol = baseUrl.substring(0, baseUrl.indexOf(':'));
+        final String spec = baseUrl.substring(protocol.length() + 1) + absName;
+        try {
+            // Specifying a stream handler needs NetPermission("specifyStreamHandler") under a SecurityManager.
+            return AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<URL>() {
+                        public URL run() throws MalformedURLException {
+                            return new URL(protocol, "", -1, spec, urlStreamHandler);
+                        }
+                    });
+        } catch (PrivilegedActionException e) {
+            throw (MalformedURLException) e.getException();
+        }
     }
 
     private JarEntryWithFile findJarEntryByPath(String name) {
+        if (this.closed) return null;
         for (JarFileEntry entry : this.jarFiles) {
-            JarEntry jarEntry = entry.getJarFile().getJarEntry(name);
-            if (jarEntry != null) return new JarEntryWithFile(entry, jarEntry);
+            JarEntryWithFile jarEntry = this.findJarEntryInFile(entry, name);
+            if (jarEntry != null) return jarEntry;
         }
         return null;
     }
 
+    JarEntryWithFile findJarEntryInFile(JarFileEntry entry, String name) {
+        if (entry.isDirectory()) {
+            long size = entry.getDirectoryIndex().getSize(name);
+            if (size < 0) return null;
+            JarEntry jarEntry = new JarEntry(name);
+            jarEntry.setSize(size);
+            return new JarEntryWithFile(entry, jarEntry);
+        }
+        JarEntryIndex entryIndex = entry.getEntryIndex();
+        if (this.sealed && entryIndex != null) {
+            JarEntryIndex.Entry indexEntry = entryIndex.find(name);
+            if (indexEntry == null) return null;
+            JarEntry jarEntry = new JarEntry(name);
+            jarEntry.setMethod(indexEntry.getMethod());
+            jarEntry.setSize(indexEntry.getSize());
+            jarEntry.setCompressedSize(indexEntry.getCompressedSize());
+            jarEntry.setCrc(indexEntry.getCrc() & 0xffffffffL);
+            return new JarEntryWithFile(entry, jarEntry);
+        }
+        JarEntry jarEntry;
+        try {
+            jarEntry = entry.getJarFile().getJarEntry(name);
+        } catch (IllegalStateException e) {
+            // the jar file was closed by a concurrent close() or seal()
+            if (this.closed) return null;
+            JarFileEntry sealedEntry = this.sealed ? this.findSealedJarFileEntry(entry) : null;
+            if (sealedEntry != null) return this.findJarEntryInFile(sealedEntry, name);
+            throw e;
+        }
+        if (jarEntry == null) return null;
+        return new JarEntryWithFile(entry, jarEntry);
+    }
+
+    InputStream openJarEntryInputStream(JarEntryWithFile jarEntry) throws IOException {
+        if (jarEntry.fileEntry.isDirectory()) {
+            if (jarEntry.jarEntry.isDirectory()) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            InputStream inputStream = Files.newInputStream(jarEntry.fileEntry.getDirectoryIndex().resolve(jarEntry.jarEntry.getName()));
+            this.registerCloseable(inputStream);
+            return inputStream;
+        }
+        if (this.sealed) {
+            return new ByteArrayInputStream(this.loadJarEntryContent(jarEntry));
+        }
+        InputStream inputStream;
+        try {
+            inputStream = jarEntry.fileEntry.getJarFile().getInputStream(jarEntry.jarEntry);
+        } catch (IllegalStateException e) {
+            // the jar file was closed by a concurrent close() or seal()
+            if (this.closed) throw new IOException("class loader closed", e);
+            if (this.sealed) return new ByteArrayInputStream(this.loadJarEntryContent(jarEntry));
+            throw e;
+        }
+        this.registerCloseable(inputStream);
+        return inputStream;
+    }
+
     private JarEntryWithFile findJarEntry(String className) {
         className = this.formatClassName(className);
         return this.findJarEntryByPath(className);
     }
 
-    private InputStream loadJarEntryInputStream(JarEntryWithFile jarEntry) throws IOException {
-        return jarEntry.fileEntry.getJarFile().getInputStream(jarEntry.jarEntry);
+    private byte[] loadJarEntryContent(JarEntryWithFile jarEntry) throws IOException {
+        if (jarEntry.fileEntry.isDirectory()) {
+            byte[] content = jarEntry.fileEntry.getDirectoryIndex().read(jarEntry.jarEntry.getName());
+            return content != null ? content : new byte[0];
+        }
+        if (this.sealed) {
+            return this.readSealedEntry(jarEntry);
+        }
+        try {
+            return readJarEntry(jarEntry.fileEntry.getJarFile(), jarEntry.jarEntry);
+        } catch (RuntimeException | IOException e) {
+            // the jar file was closed by a concurrent close() or seal(): "zip file closed", or
+            // an ended inflater when the close hits a read in progress
+            if (this.sealed && !this.closed) return this.readSealedEntry(jarEntry);
+            throw e;
+        }
     }
 
-    private byte[] loadJarEntryContent(JarEntryWithFile jarEntry) throws IOException {
-        byte[] buffer = new byte[(int)jarEntry.jarEntry.getSize()];
+    /**
+     * Reads an entry through the index of the sealed jar, also when the entry was found in the
+     * jar before it was sealed.
+     */
+    private byte[] readSealedEntry(JarEntryWithFile jarEntry) throws IOException {
+        String name = jarEntry.jarEntry.getName();
+        JarFileEntry fileEntry = this.findSealedJarFileEntry(jarEntry.fileEntry);
+        if (fileEntry == null) {
+            throw new IOException("jar file not in class loader: " + jarEntry.fileEntry.getFile());
+        }
+        byte[] content = fileEntry.getEntryIndex().readEntry(fileEntry.getFile(), name);
+        if (content == null) {
+            throw new IOException("entry not found: " + name);
+        }
+        ManifestDigests manifestDigests = fileEntry.getManifestDigests();
+        if (manifestDigests != null) {
+            manifestDigests.check(name, content);
+        }
+        return content;
+    }
+
+    /**
+     * @return the entry that replaced the jar's entry on seal(), or null if there is none
+     */
+    private JarFileEntry findSealedJarFileEntry(JarFileEntry entry) {
+        for (JarFileEntry sealedEntry : this.jarFiles) {
+            if (sealedEntry.getEntryIndex() != null && sealedEntry.getFile().equals(entry.getFile())) {
+                return sealedEntry;
+            }
+        }
+        return null;
+    }
+
+    static byte[] readJarEntry(JarFile jarFile, JarEntry jarEntry) throws IOException {
+        byte[] buffer = new byte[(int)jarEntry.getSize()];
         int position = 0;
         int readlen;
 
-        try (InputStream inputStream = loadJarEntryInputStream(jarEntry)) {
+        try (InputStream inputStream = jarFile.getInputStream(jarEntry)) {
             while ((readlen = inputStream.read(buffer, position, buffer.length - position)) > 0) {
                 position += readlen;
             }
@@ -333,18 +787,38 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
             JarEntryWithFile jarEntry = JarPluginClassLoader.this.findJarEntry(className);
             if (jarEntry == null) return null;
             try {
-                byte[] classContent = JarPluginClassLoader.this.loadJarEntryContent(jarEntry);
-                ProtectionDomain protectionDomain = JarPluginClassLoader.this.getProtectionDomain(className, jarEntry.fileEntry.getJarFile(), jarEntry.jarEntry);
+                byte[] classContent = null;
+                ClassPrefetcher classPrefetcher = JarPluginClassLoader.this.classPrefetcher;
+                if (classPrefetcher != null && !sealed && !jarEntry.fileEntry.isDirectory()) {
+                    try {
+                        classContent = classPrefetcher.take(jarEntry.fileEntry, jarEntry.jarEntry);
+                    } catch (RuntimeException | IOException e) {
+                        // the jar file was closed by a concurrent seal(); read it through the index below
+                        if (!sealed || closed) throw e;
+                    }
+                }
+                if (classContent == null) {
+                    classContent = JarPluginClassLoader.this.loadJarEntryContent(jarEntry);
+                }
+                ProtectionDomain protectionDomain = JarPluginClassLoader.this.getProtectionDomain(className, sealed ? null : jarEntry.fileEntry.getJarFile(), jarEntry.jarEntry);
                 clazz = JarPluginClassLoader.this.defineClass(className, classContent, 0, classContent.length, protectionDomain);
                 if (clazz.getPackage() == null) {
                     int lastDotIndex = className.lastIndexOf('.');
                     String packageName = lastDotIndex >= 0 ? className.substring(0, lastDotIndex) : "";
-                    JarPluginClassLoader.this.definePackage(packageName, (String) null, (String) null, (String) null, (String) null, (String) null, (String) null, (URL) null);
+                    try {
+                        JarPluginClassLoader.this.definePackage(packageName, (String) null, (String) null, (String) null, (String) null, (String) null, (String) null, (URL) null);
+                    } catch (IllegalArgumentException e) {
+                        // defined concurrently by a class of the same package
+                    }
                 }
                 classes.put(className, clazz);
                 return clazz;
             } catch (LinkageError e) {
                 clazz = classes.get(className);
+                if (clazz == null) {
+                    // defined by a concurrent caller that has not published it to classes yet
+                    clazz = JarPluginClassLoader.this.findLoadedClass(className);
+                }
                 if (clazz != null) return clazz;
                 throw new ClassNotFoundException("nested", e);
             } catch (Throwable e) {
@@ -360,6 +834,10 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         }
     }
 
+    /**
+     * @param jarFile  jar of the class, or null for a directory, an extracted jar or a sealed loader
+     * @param jarEntry entry of the class; it carries code signers only when read from a jar file
+     */
     protected ProtectionDomain getProtectionDomain(String className, JarFile jarFile, JarEntry jarEntry) {
         return null;
     }
@@ -368,8 +846,8 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         private final String name;
         private final Iterator<JarFileEntry> jarFileEntryIterator;
         private JarFileEntry jarFileEntry = null;
-        private Enumeration<JarEntry> jarEntryEnumeration = null;
-        private JarEntry next = null;
+        private Iterator<String> entryNameIterator = null;
+        private String next = null;
 
 
         public FindResourceEnumeration(String name) {
@@ -387,7 +865,7 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         @Override
         public URL nextElement() {
             try {
-                URL url = toUrl(this.jarFileEntry, this.next.getName());
+                URL url = toUrl(this.jarFileEntry, this.next);
                 this.next = null;
                 nextEntry();
                 return url;
@@ -399,21 +877,39 @@ public class JarPluginClassLoader extends SecureClassLoader implements Closeable
         private void nextJarFile() {
             if (this.jarFileEntryIterator.hasNext()) {
                 this.jarFileEntry = this.jarFileEntryIterator.next();
-                this.jarEntryEnumeration = this.jarFileEntry.getJarFile().entries();
+                JarEntryIndex entryIndex = this.jarFileEntry.getEntryIndex();
+                if (this.jarFileEntry.isDirectory()) {
+                    this.entryNameIterator = this.jarFileEntry.getDirectoryIndex().findNamesByPrefix(name).iterator();
+                } else if (entryIndex != null) {
+                    this.entryNameIterator = entryIndex.findNamesByPrefix(name).iterator();
+                } else {
+                    Enumeration<JarEntry> jarEntryEnumeration = this.jarFileEntry.getJarFile().entries();
+                    this.entryNameIterator = new Iterator<String>() {
+                        @Override
+                        public boolean hasNext() {
+                            return jarEntryEnumeration.hasMoreElements();
+                        }
+
+                        @Override
+                        public String next() {
+                            return jarEntryEnumeration.nextElement().getName();
+                        }
+                    };
+                }
             } else {
                 this.jarFileEntry = null;
-                this.jarEntryEnumeration = null;
+                this.entryNameIterator = null;
             }
         }
         private void nextEntry() {
-            if (this.jarEntryEnumeration == null) {
+            if (this.entryNameIterator == null) {
                 return ;
             }
             do {
-                while (this.jarEntryEnumeration.hasMoreElements()) {
-                    JarEntry entry = this.jarEntryEnumeration.nextElement();
-                    if (entry.getName().startsWith(name)) {
-                        this.next = entry;
+                while (this.entryNameIterator.hasNext()) {
+                    String entryName = this.entryNameIterator.next();
+                    if (entryName.startsWith(name)) {
+                        this.next = entryName;
                         return ;
                     }
                 }
@@ -9,6 +9,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.CodeSigner;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.*;
@@ -35,17 +36,16 @@ public class JarVerifier {
         }
     }
 
-    private boolean verifyCmsSignedData(JarVerificationContext context, CMSSignedData signedData) throws Exception {
+    private boolean verifyCmsSignedData(List<List<X509Certificate>> chains, CMSSignedData signedData) throws Exception {
         Store<X509CertificateHolder> certs = signedData.getCertificates();
         SignerInformationStore signers = signedData.getSignerInfos();
-        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509", BCProviderHolder.PROVIDER);
 
         for (Iterator<SignerInformation> iterator = signers.getSigners().iterator(); iterator.hasNext(); ) {
             SignerInformation signer = iterator.next();
             Collection<X509CertificateHolder> certCollection = certs.getMatches(signer.getSID());
             ArrayList<X509Certificate> chain = new ArrayList<>();
             for (X509CertificateHolder certHolder : certCollection) {
-                chain.add((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(certHolder.getEncoded())));
+                chain.add(decodeCertificate(certHolder.getEncoded()));
             }
             if (chain.isEmpty()) {
                 return false;
@@ -56,13 +56,23 @@ public class JarVerifier {
             if (!signer.verify(verifier)) {
                 return false;
             }
-            this.jarVerificationHandler.verify(context, chain);
+            chains.add(chain);
         }
 
         return true;
     }
 
     public final void verify(JarFile jarFile) throws IOException, SecurityException {
+        this.verifySigners(this.verifySignatures(jarFile));
+    }
+
+    /**
+     * Checks the entry digests and signatures of the jar without consulting the handler.
+     *
+     * @return certificate chain of each signer, empty for an unsigned jar
+     * @throws SecurityException if a digest or signature check fails
+     */
+    public final List<List<X509Certificate>> verifySignatures(JarFile jarFile) throws IOException, SecurityException {
         byte[] dummy = new byte[1024];
         final HashMap<String, SignatureFile> signatureFiles = new HashMap<>();
 
@@ -104,9 +114,7 @@ public class JarVerifier {
             }
         }
 
-        final JarVerificationContext context = this.jarVerificationHandler.createContext();
-        this.jarVerificationHandler.start(context);
-
+        final List<List<X509Certificate>> chains = new ArrayList<>();
         for (Map.Entry<String, SignatureFile> entry : signatureFiles.entrySet()) {
             if (entry.getValue().signatureFile == null || entry.getValue().plainFile == null) {
                 throw new SecurityException("Wrong signature: " + entry.getKey());
@@ -115,13 +123,33 @@ public class JarVerifier {
             byte[] signatureData = readFullyJarEntry(entry.getValue().signatureFile, jarFile);
             try {
                 CMSSignedData block = new CMSSignedData(new CMSProcessableByteArray(plainData), signatureData);
-                if (!verifyCmsSignedData(context, block)) {
+                if (!verifyCmsSignedData(chains, block)) {
                     throw new SecurityException("Failed to verify signature");
                 }
             } catch (Exception e) {
                 throw new SecurityException(e);
             }
         }
+        return chains;
+    }
+
+    /**
+     * Lets the handler decide on signer chains checked by {@link #verifySignatures(JarFile)},
+     * also when they were recorded earlier, such as with an extracted jar.
+     *
+     * @throws SecurityException if the handler does not accept the signers
+     */
+    public final void verifySigners(List<List<X509Certificate>> chains) throws SecurityException {
+        final JarVerificationContext context = this.jarVerificationHandler.createContext();
+        this.jarVerificationHandler.start(context);
+
+        for (List<X509Certificate> chain : chains) {
+            try {
+                this.jarVerificationHandler.verify(context, chain);
+            } catch (Exception e) {
+                throw new SecurityException(e);
+            }
+        }
 
         this.jarVerificationHandler.end(context);
 
@@ -130,6 +158,22 @@ public class JarVerifier {
         }
     }
 
+    /**
+     * Verifies content without signatures, such as an exploded plugin directory.
+     * It is accepted only if the handler accepts unsigned content.
+     */
+    public final void verifyUnsigned() throws SecurityException {
+        this.verifySigners(Collections.emptyList());
+    }
+
+    /**
+     * Decodes a certificate the same way as those of the chains passed to the handler.
+     */
+    static X509Certificate decodeCertificate(byte[] encoded) throws CertificateException {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509", BCProviderHolder.PROVIDER);
+        return (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
     private static byte[] readFullyJarEntry(JarEntry entry, JarFile file) throws IOException {
         byte[] buffer = new byte[(int) entry.getSize()];
         try (InputStream inputStream = file.getInputStream(entry)) {
@@ -0,0 +1,40 @@
+package kr.jclab.javautils.pluginloader;
+
+/**
+ * Locks guarding sealing, class definition and resource stream tracking of a {@link JarPluginClassLoader}.
+ *
+ * This baseline uses monitors. The multi-release variant for Java 21+ replaces it with
+ * {@link java.util.concurrent.locks.ReentrantLock}s so that virtual threads doing jar I/O
+ * while holding a lock do not pin their carrier thread.
+ */
+final class LoaderLocks {
+    interface LockedAction<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private final JarPluginClassLoader loader;
+    private final Object loaderLock = new Object();
+    private final Object closeablesLock = new Object();
+
+    LoaderLocks(JarPluginClassLoader loader) {
+        this.loader = loader;
+    }
+
+    <T, E extends Exception> T withLoaderLock(LockedAction<T, E> action) throws E {
+        synchronized (this.loaderLock) {
+            return action.run();
+        }
+    }
+
+    <T, E extends Exception> T withClassLoadingLock(String name, LockedAction<T, E> action) throws E {
+        synchronized (this.loader.classLoadingLock(name)) {
+            return action.run();
+        }
+    }
+
+    <T, E extends Exception> T withCloseablesLock(LockedAction<T, E> action) throws E {
+        synchronized (this.closeablesLock) {
+            return action.run();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Entry digests of the signed manifest of a jar, kept by a sealed loader.
+ *
+ * Once sealed, entries are read directly from the jar file instead of through the verifying
+ * {@link JarFile}; their content is checked against these digests so that a jar modified after
+ * seal() cannot pass as the signed one by keeping its size, time and CRC-32.
+ */
+final class ManifestDigests {
+    /**
+     * Strongest first; the JDK signs with SHA-256 and older jars carry SHA1 digests.
+     */
+    private static final String[] ALGORITHMS = {"SHA-512", "SHA-384", "SHA-256", "SHA-224", "SHA1", "SHA-1"};
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final class Digest {
+        final String algorithm;
+        final byte[] value;
+
+        Digest(String algorithm, byte[] value) {
+            this.algorithm = algorithm;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Digest> digests;
+    private final long bytes;
+
+    private ManifestDigests(Map<String, Digest> digests, long bytes) {
+        this.digests = digests;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return digests of the manifest entries, or null if the jar has none
+     */
+    static ManifestDigests of(JarFile jarFile) throws IOException {
+        Manifest manifest = jarFile.getManifest();
+        if (manifest == null) return null;
+        Map<String, Digest> digests = new HashMap<>();
+        long bytes = 0;
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            Digest digest = strongest(entry.getValue());
+            if (digest == null) continue;
+            digests.put(entry.getKey(), digest);
+            bytes += ENTRY_OVERHEAD + entry.getKey().length() * 2L + digest.value.length;
+        }
+        return digests.isEmpty() ? null : new ManifestDigests(digests, bytes);
+    }
+
+    private static Digest strongest(Attributes attributes) {
+        for (String algorithm : ALGORITHMS) {
+            String value = attributes.getValue(algorithm + "-Digest");
+            if (value == null) continue;
+            try {
+                MessageDigest.getInstance(algorithm);
+                return new Digest(algorithm, Base64.getDecoder().decode(value.trim()));
+            } catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+                // not usable, try a weaker one
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws IOException if the entry is signed and the content does not match its digest
+     */
+    void check(String name, byte[] content) throws IOException {
+        Digest digest = this.digests.get(name);
+        if (digest == null) return;
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(digest.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        if (!MessageDigest.isEqual(messageDigest.digest(content), digest.value)) {
+            throw new IOException("manifest digest mismatch: " + name);
+        }
+    }
+
+    /**
+     * @return estimated heap bytes held by the digests
+     */
+    long getBytes() {
+        return this.bytes;
+    }
+}
@@ -0,0 +1,337 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Handler of the {@code jar:} and {@code file:} URLs returned by a {@link JarPluginClassLoader}.
+ *
+ * Connections read from the loader's already open jar files instead of going through the
+ * JDK jar URL cache, so no second handle on the jar is opened and none outlives the loader.
+ * {@code file:} URLs point into exploded plugin directories.
+ *
+ * Like the JDK jar handler, {@code jar:} URLs are parsed and compared around their {@code !/}
+ * separator, so relative and absolute specs resolve against the entry path inside the jar.
+ *
+ * The loader is held weakly: a URL kept after the loader is closed does not keep it alive.
+ */
+final class PluginURLStreamHandler extends URLStreamHandler {
+    private static final String SEPARATOR = "!/";
+
+    private final WeakReference<JarPluginClassLoader> loader;
+
+    PluginURLStreamHandler(JarPluginClassLoader loader) {
+        this.loader = new WeakReference<>(loader);
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        JarPluginClassLoader loader = this.loader.get();
+        if (loader == null) {
+            throw new IOException("plugin class loader closed: " + url);
+        }
+        if ("file".equals(url.getProtocol())) {
+            return new PluginFileURLConnection(url, loader);
+        }
+        return new PluginJarURLConnection(url, loader);
+    }
+
+    @Override
+    protected void parseURL(URL url, String spec, int start, int limit) {
+        if (!"jar".equals(url.getProtocol())) {
+            super.parseURL(url, spec, start, limit);
+            return;
+        }
+        String file = null;
+        String ref = null;
+        int refIndex = spec.indexOf('#', limit);
+        boolean refOnly = refIndex == start;
+        if (refIndex >= 0) {
+            ref = spec.substring(refIndex + 1);
+            if (refOnly) {
+                file = url.getFile();
+            }
+        }
+        boolean absoluteSpec = spec.regionMatches(true, 0, "jar:", 0, 4);
+        String path = spec.substring(start, limit);
+        if (absoluteSpec) {
+            file = parseAbsoluteSpec(path);
+        } else if (!refOnly) {
+            file = parseContextSpec(url, path);
+            int separator = file.lastIndexOf(SEPARATOR);
+            file = file.substring(0, separator + 1) + canonicalize(file.substring(separator + 1));
+        }
+        this.setURL(url, "jar", "", -1, null, null, file, null, ref);
+    }
+
+    @Override
+    protected boolean sameFile(URL u1, URL u2) {
+        if (!"jar".equals(u1.getProtocol()) || !"jar".equals(u2.getProtocol())) {
+            return super.sameFile(u1, u2);
+        }
+        String file1 = u1.getFile();
+        String file2 = u2.getFile();
+        int separator1 = file1.lastIndexOf(SEPARATOR);
+        int separator2 = file2.lastIndexOf(SEPARATOR);
+        if (separator1 < 0 || separator2 < 0) {
+            return super.sameFile(u1, u2);
+        }
+        if (!file1.substring(separator1 + 2).equals(file2.substring(separator2 + 2))) {
+            return false;
+        }
+        try {
+            return new URL(file1.substring(0, separator1)).sameFile(new URL(file2.substring(0, separator2)));
+        } catch (MalformedURLException e) {
+            return super.sameFile(u1, u2);
+        }
+    }
+
+    /**
+     * Same hash code as the JDK jar handler gives, as {@link #sameFile} can equal its URLs.
+     */
+    @Override
+    protected int hashCode(URL url) {
+        if (!"jar".equals(url.getProtocol())) {
+            return super.hashCode(url);
+        }
+        String file = url.getFile();
+        int separator = file.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            return file.hashCode();
+        }
+        String jarFile = file.substring(0, separator);
+        int hashCode = url.getProtocol().hashCode();
+        try {
+            hashCode += new URL(jarFile).hashCode();
+        } catch (MalformedURLException e) {
+            hashCode += jarFile.hashCode();
+        }
+        return hashCode + file.substring(separator + 2).hashCode();
+    }
+
+    private static String parseAbsoluteSpec(String spec) {
+        int separator = spec.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("no " + SEPARATOR + " in spec: " + spec);
+        }
+        try {
+            new URL(spec.substring(0, separator));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("invalid jar file URL in spec: " + spec, e);
+        }
+        return spec;
+    }
+
+    private static String parseContextSpec(URL url, String spec) {
+        String contextFile = url.getFile();
+        if (spec.startsWith("/")) {
+            int separator = contextFile.lastIndexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("no " + SEPARATOR + " in context URL: " + url);
+            }
+            return contextFile.substring(0, separator + 1) + spec;
+        }
+        if (!contextFile.endsWith("/")) {
+            contextFile = contextFile.substring(0, contextFile.lastIndexOf('/') + 1);
+        }
+        return contextFile + spec;
+    }
+
+    /**
+     * Removes {@code .} and {@code ..} segments of an absolute entry path.
+     */
+    private static String canonicalize(String path) {
+        String[] segments = path.substring(1).split("/", -1);
+        ArrayList<String> canonical = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean last = i == segments.length - 1;
+            if (".".equals(segment) || "..".equals(segment)) {
+                if ("..".equals(segment) && !canonical.isEmpty()) {
+                    canonical.remove(canonical.size() - 1);
+                }
+                if (last) {
+                    canonical.add("");
+                }
+            } else {
+                canonical.add(segment);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String segment : canonical) {
+            builder.append('/').append(segment);
+        }
+        return builder.length() > 0 ? builder.toString() : "/";
+    }
+
+    interface PluginURLConnection {
+        /**
+         * @return the entry of the URL, or null if the loader has no such entry
+         * @throws IOException if the loader is closed
+         */
+        JarPluginClassLoader.JarEntryWithFile findPluginEntry() throws IOException;
+    }
+
+    static final class PluginJarURLConnection extends JarURLConnection implements PluginURLConnection {
+        private final JarPluginClassLoader loader;
+        private JarFileEntry jarFileEntry = null;
+        private JarPluginClassLoader.JarEntryWithFile jarEntry = null;
+
+        PluginJarURLConnection(URL url, JarPluginClassLoader loader) throws IOException {
+            super(url);
+            this.loader = loader;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (this.connected) return;
+            if (this.loader.isClosed()) {
+                throw new IOException("plugin class loader closed: " + this.url);
+            }
+            JarFileEntry jarFileEntry = this.loader.findJarFileEntryByUrl(this.getJarFileURL());
+            if (jarFileEntry == null) {
+                throw new FileNotFoundException("JAR file " + this.getJarFileURL() + " not in plugin class loader");
+            }
+            String entryName = this.getEntryName();
+            if (entryName != null) {
+                this.jarEntry = this.loader.findJarEntryInFile(jarFileEntry, entryName);
+                if (this.jarEntry == null) {
+                    throw new FileNotFoundException("JAR entry " + entryName + " not found in " + jarFileEntry.getFile());
+                }
+            }
+            this.jarFileEntry = jarFileEntry;
+            this.connected = true;
+        }
+
+        @Override
+        public JarPluginClassLoader.JarEntryWithFile findPluginEntry() throws IOException {
+            try {
+                this.connect();
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+            return this.jarEntry;
+        }
+
+        /**
+         * @return a new handle on the jar, owned by the caller, who should close it. It is
+         * also closed with the loader.
+         */
+        @Override
+        public JarFile getJarFile() throws IOException {
+            this.connect();
+            JarFile jarFile = new JarFile(this.jarFileEntry.getFile());
+            this.loader.registerCloseable(jarFile);
+            return jarFile;
+        }
+
+        @Override
+        public JarEntry getJarEntry() throws IOException {
+            this.connect();
+            return this.jarEntry != null ? this.jarEntry.jarEntry : null;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            this.connect();
+            if (this.jarEntry == null) {
+                throw new IOException("no entry name specified");
+            }
+            return this.loader.openJarEntryInputStream(this.jarEntry);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                this.connect();
+            } catch (IOException e) {
+                return -1;
+            }
+            return this.jarEntry != null ? this.jarEntry.jarEntry.getSize() : -1;
+        }
+
+        @Override
+        public int getContentLength() {
+            long length = this.getContentLengthLong();
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+
+        @Override
+        public String getContentType() {
+            String entryName = this.getEntryName();
+            String contentType = entryName != null ? guessContentTypeFromName(entryName) : null;
+            return contentType != null ? contentType : "content/unknown";
+        }
+    }
+
+    static final class PluginFileURLConnection extends URLConnection implements PluginURLConnection {
+        private final JarPluginClassLoader loader;
+        private JarPluginClassLoader.JarEntryWithFile jarEntry = null;
+
+        PluginFileURLConnection(URL url, JarPluginClassLoader loader) {
+            super(url);
+            this.loader = loader;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (this.connected) return;
+            if (this.loader.isClosed()) {
+                throw new IOException("plugin class loader closed: " + this.url);
+            }
+            this.jarEntry = this.loader.findDirectoryEntryByUrl(this.url);
+            if (this.jarEntry == null) {
+                throw new FileNotFoundException(this.url + " not in plugin class loader");
+            }
+            this.connected = true;
+        }
+
+        @Override
+        public JarPluginClassLoader.JarEntryWithFile findPluginEntry() throws IOException {
+            try {
+                this.connect();
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+            return this.jarEntry;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            this.connect();
+            return this.loader.openJarEntryInputStream(this.jarEntry);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                this.connect();
+            } catch (IOException e) {
+                return -1;
+            }
+            return this.jarEntry.jarEntry.getSize();
+        }
+
+        @Override
+        public int getContentLength() {
+            long length = this.getContentLengthLong();
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+
+        @Override
+        public String getContentType() {
+            String contentType = guessContentTypeFromName(this.url.getPath());
+            return contentType != null ? contentType : "content/unknown";
+        }
+    }
+}
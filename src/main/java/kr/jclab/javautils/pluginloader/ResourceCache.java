@@ -0,0 +1,224 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded cache of small resource contents with LRU eviction.
+ *
+ * Entries are keyed by their owner, the loader that read them, and the resource name, so one
+ * cache can be shared by several loaders under a common size bound. Owners are held weakly.
+ *
+ * Lookups do not block: they update the access order only when the lock is free, so under
+ * contention the eviction order is approximate. Inserts take the lock and evict the least
+ * recently used entries in constant time each.
+ */
+public final class ResourceCache {
+    /**
+     * Identifies the owner by identity and holds it weakly, so the cache never keeps a loader
+     * alive; entries of a collected owner are removed on the next insert.
+     */
+    private static final class Key {
+        final OwnerReference owner;
+        final String name;
+        final int hashCode;
+
+        Key(Object owner, String name, ReferenceQueue<Object> queue) {
+            this.owner = new OwnerReference(owner, this, queue);
+            this.name = name;
+            this.hashCode = System.identityHashCode(owner) * 31 + name.hashCode();
+        }
+
+        boolean isOwnedBy(Object owner) {
+            return this.owner.get() == owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            Object owner = this.owner.get();
+            return owner != null && owner == key.owner.get() && this.name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+    private static final class OwnerReference extends WeakReference<Object> {
+        final Key key;
+
+        OwnerReference(Object owner, Key key, ReferenceQueue<Object> queue) {
+            super(owner, queue);
+            this.key = key;
+        }
+    }
+
+    private final long maxTotalBytes;
+    private final int maxEntryBytes;
+    private final ConcurrentHashMap<Key, byte[]> entries = new ConcurrentHashMap<>();
+    /**
+     * Access order of the entries, guarded by {@link #lock}.
+     */
+    private final LinkedHashMap<Key, byte[]> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxTotalBytes maximum sum of cached content sizes
+     * @param maxEntryBytes resources larger than this are never cached
+     */
+    public ResourceCache(long maxTotalBytes, int maxEntryBytes) {
+        if (maxTotalBytes < 0 || maxEntryBytes < 0) {
+            throw new IllegalArgumentException("negative cache size");
+        }
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, maxTotalBytes);
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public boolean accepts(long size) {
+        return size >= 0 && size <= this.maxEntryBytes;
+    }
+
+    /**
+     * @return cached content, or null. The returned array must not be modified.
+     */
+    public byte[] get(Object owner, String name) {
+        Key key = new Key(owner, name, null);
+        byte[] content = this.entries.get(key);
+        if (content == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        if (this.lock.tryLock()) {
+            try {
+                this.accessOrder.get(key);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        this.hitCount.incrementAndGet();
+        return content;
+    }
+
+    public void put(Object owner, String name, byte[] content) {
+        if (!this.accepts(content.length)) return;
+        Key key = new Key(owner, name, this.collectedOwners);
+        this.lock.lock();
+        try {
+            this.removeCollected();
+            byte[] previous = this.accessOrder.put(key, content);
+            this.entries.put(key, content);
+            this.totalBytes.addAndGet(content.length - (previous != null ? previous.length : 0));
+            Iterator<Map.Entry<Key, byte[]>> iterator = this.accessOrder.entrySet().iterator();
+            while (this.totalBytes.get() > this.maxTotalBytes && iterator.hasNext()) {
+                Map.Entry<Key, byte[]> eldest = iterator.next();
+                iterator.remove();
+                this.entries.remove(eldest.getKey());
+                this.totalBytes.addAndGet(-eldest.getValue().length);
+                this.evictionCount.incrementAndGet();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entries whose owner was collected, under {@link #lock}.
+     */
+    private void removeCollected() {
+        Reference<?> reference;
+        while ((reference = this.collectedOwners.poll()) != null) {
+            Key key = ((OwnerReference) reference).key;
+            byte[] content = this.accessOrder.remove(key);
+            if (content != null) {
+                this.entries.remove(key);
+                this.totalBytes.addAndGet(-content.length);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries of the owner, such as a loader being closed.
+     */
+    public void invalidate(Object owner) {
+        this.lock.lock();
+        try {
+            this.removeCollected();
+            for (Iterator<Map.Entry<Key, byte[]>> iterator = this.accessOrder.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<Key, byte[]> entry = iterator.next();
+                if (entry.getKey().isOwnedBy(owner)) {
+                    iterator.remove();
+                    this.entries.remove(entry.getKey());
+                    this.totalBytes.addAndGet(-entry.getValue().length);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.accessOrder.clear();
+            this.entries.clear();
+            this.totalBytes.set(0);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        return this.entries.size();
+    }
+
+    public long getTotalBytes() {
+        return this.totalBytes.get();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceCache{" +
+                "entries=" + this.getEntryCount() +
+                ", totalBytes=" + this.getTotalBytes() +
+                ", hits=" + this.getHitCount() +
+                ", misses=" + this.getMissCount() +
+                ", evictions=" + this.getEvictionCount() +
+                '}';
+    }
+}
@@ -0,0 +1,50 @@
+package kr.jclab.javautils.pluginloader;
+
+/**
+ * Result of {@link JarPluginClassLoader#seal()}.
+ */
+public final class SealReport {
+    private final int jarCount;
+    private final long entryCount;
+    private final long releasedBytes;
+    private final long retainedBytes;
+
+    public SealReport(int jarCount, long entryCount, long releasedBytes, long retainedBytes) {
+        this.jarCount = jarCount;
+        this.entryCount = entryCount;
+        this.releasedBytes = releasedBytes;
+        this.retainedBytes = retainedBytes;
+    }
+
+    public int getJarCount() {
+        return jarCount;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return estimated bytes of central directory and lookup structures released by closing the jars
+     */
+    public long getReleasedBytes() {
+        return releasedBytes;
+    }
+
+    /**
+     * @return bytes of the entry indexes and manifest digests kept to serve later lookups
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SealReport{" +
+                "jarCount=" + jarCount +
+                ", entryCount=" + entryCount +
+                ", releasedBytes=" + releasedBytes +
+                ", retainedBytes=" + retainedBytes +
+                '}';
+    }
+}
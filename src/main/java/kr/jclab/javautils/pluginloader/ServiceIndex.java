@@ -0,0 +1,99 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Service interface name to provider class names of the {@code META-INF/services} files of
+ * a set of jars, in jar order.
+ */
+public final class ServiceIndex {
+    public static final String SERVICES_PATH = "META-INF/services/";
+
+    private final Map<String, List<String>> providers;
+
+    private ServiceIndex(Map<String, List<String>> providers) {
+        this.providers = providers;
+    }
+
+    public static ServiceIndex build(List<JarFileEntry> jarFiles) throws IOException {
+        Map<String, LinkedHashSet<String>> providers = new LinkedHashMap<>();
+        for (JarFileEntry fileEntry : jarFiles) {
+            JarFile jarFile = fileEntry.getJarFile();
+            for (String name : findServiceFiles(fileEntry)) {
+                String serviceName = name.substring(SERVICES_PATH.length());
+                if (serviceName.isEmpty() || serviceName.indexOf('/') >= 0) continue;
+                byte[] content;
+                if (fileEntry.isDirectory()) {
+                    content = fileEntry.getDirectoryIndex().read(name);
+                } else {
+                    JarEntry jarEntry = jarFile.getJarEntry(name);
+                    content = (jarEntry != null && !jarEntry.isDirectory()) ? JarPluginClassLoader.readJarEntry(jarFile, jarEntry) : null;
+                }
+                if (content == null) continue;
+                LinkedHashSet<String> providerNames = providers.computeIfAbsent(serviceName, (key) -> new LinkedHashSet<>());
+                parse(content, providerNames);
+            }
+        }
+
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, LinkedHashSet<String>> entry : providers.entrySet()) {
+            result.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return new ServiceIndex(Collections.unmodifiableMap(result));
+    }
+
+    public Set<String> getServiceNames() {
+        return this.providers.keySet();
+    }
+
+    /**
+     * @return provider class names of the service in jar order, empty if there are none
+     */
+    public List<String> getProviderNames(String serviceName) {
+        List<String> providerNames = this.providers.get(serviceName);
+        return providerNames != null ? providerNames : Collections.emptyList();
+    }
+
+    private static List<String> findServiceFiles(JarFileEntry fileEntry) {
+        if (fileEntry.isDirectory()) {
+            return fileEntry.getDirectoryIndex().findNamesByPrefix(SERVICES_PATH);
+        }
+        JarEntryIndex entryIndex = fileEntry.getEntryIndex();
+        if (entryIndex != null) {
+            return entryIndex.findNamesByPrefix(SERVICES_PATH);
+        }
+        List<String> names = new ArrayList<>();
+        Enumeration<JarEntry> entries = fileEntry.getJarFile().entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (name.startsWith(SERVICES_PATH)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Parses a provider-configuration file as {@link java.util.ServiceLoader} does.
+     */
+    private static void parse(byte[] content, Set<String> providerNames) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int commentIndex = line.indexOf('#');
+                if (commentIndex >= 0) line = line.substring(0, commentIndex);
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    providerNames.add(line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package kr.jclab.javautils.pluginloader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks guarding sealing, class definition and resource stream tracking of a {@link JarPluginClassLoader}.
+ *
+ * Java 21+ variant: a virtual thread blocked on a {@link ReentrantLock} unmounts from its
+ * carrier thread, unlike one blocked in or on a monitor. Per-name locks are removed once no
+ * thread holds or waits for them.
+ */
+final class LoaderLocks {
+    interface LockedAction<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private static final class NamedLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int holders = 0;
+    }
+
+    private final ConcurrentHashMap<String, NamedLock> classLoadingLocks = new ConcurrentHashMap<>();
+    private final ReentrantLock loaderLock = new ReentrantLock();
+    private final ReentrantLock closeablesLock = new ReentrantLock();
+
+    LoaderLocks(JarPluginClassLoader loader) {
+    }
+
+    <T, E extends Exception> T withLoaderLock(LockedAction<T, E> action) throws E {
+        this.loaderLock.lock();
+        try {
+            return action.run();
+        } finally {
+            this.loaderLock.unlock();
+        }
+    }
+
+    <T, E extends Exception> T withClassLoadingLock(String name, LockedAction<T, E> action) throws E {
+        ReentrantLock lock = this.classLoadingLocks.compute(name, (key, current) -> {
+            NamedLock namedLock = current != null ? current : new NamedLock();
+            namedLock.holders++;
+            return namedLock;
+        }).lock;
+        lock.lock();
+        try {
+            return action.run();
+        } finally {
+            lock.unlock();
+            this.classLoadingLocks.computeIfPresent(name, (key, current) -> (--current.holders == 0) ? null : current);
+        }
+    }
+
+    <T, E extends Exception> T withCloseablesLock(LockedAction<T, E> action) throws E {
+        this.closeablesLock.lock();
+        try {
+            return action.run();
+        } finally {
+            this.closeablesLock.unlock();
+        }
+    }
+}
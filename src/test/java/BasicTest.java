@@ -1,18 +1,57 @@
+import kr.jclab.javautils.pluginloader.ClassMetadata;
+import kr.jclab.javautils.pluginloader.ClassPrefetcher;
+import kr.jclab.javautils.pluginloader.ClassScanner;
+import kr.jclab.javautils.pluginloader.ExtractedJarCache;
+import kr.jclab.javautils.pluginloader.JarEntryIndex;
 import kr.jclab.javautils.pluginloader.JarPluginClassLoader;
 import kr.jclab.javautils.pluginloader.JarVerificationContext;
 import kr.jclab.javautils.pluginloader.JarVerificationHandler;
 import kr.jclab.javautils.pluginloader.JarVerifier;
+import kr.jclab.javautils.pluginloader.ResourceCache;
+import kr.jclab.javautils.pluginloader.SealReport;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class BasicTest {
@@ -139,4 +178,610 @@ public class BasicTest {
         List<URL> list = Collections.list(classLoader.getResources("hello/"));
         assertEquals(list.size(), 2);
     }
+
+    @Test
+    public void testEntryIndex(@TempDir File indexDirectory) throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarEntryIndex.Location location = JarEntryIndex.Location.directory(indexDirectory);
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier,
+                        location
+                );
+        assertTrue(location.resolve(file).isFile());
+        classLoadAndRun(classLoader);
+        List<URL> list = Collections.list(classLoader.getResources("hello/"));
+        assertEquals(list.size(), 2);
+
+        JarEntryIndex index = JarEntryIndex.load(location.resolve(file));
+        assertEquals(index.size(), 4);
+        assertTrue(index.contains("hello/TestComponent.class"));
+        assertFalse(index.contains("hello/Missing.class"));
+        assertEquals(index.find("hello/TestComponent.class").getSize(), 520);
+
+        // A rewritten jar no longer matches its persisted index, which is then rebuilt.
+        File copy = new File(indexDirectory, "copy.jar");
+        File copyIndex = new File(indexDirectory, "copy.jar.idx");
+        Files.copy(file.toPath(), copy.toPath());
+        assertEquals(JarEntryIndex.loadOrBuild(copy, copyIndex).size(), 4);
+        Files.copy(new File(this.getClass().getResource("/test-component-1.0.1-signed.jar").getPath()).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        JarEntryIndex rebuilt = JarEntryIndex.loadOrBuild(copy, copyIndex);
+        assertTrue(rebuilt.size() > 4);
+        assertEquals(JarEntryIndex.load(copyIndex).size(), rebuilt.size());
+    }
+
+    @Test
+    public void testResourceCache() throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        ResourceCache resourceCache = new ResourceCache(4096, 1024);
+        classLoader.setResourceCache(resourceCache);
+        for (int i = 0; i < 3; i++) {
+            try (InputStream inputStream = classLoader.getResourceAsStream("hello/TestComponent.class")) {
+                assertEquals(inputStream.available(), 520);
+            }
+        }
+        assertEquals(resourceCache.getMissCount(), 1);
+        assertEquals(resourceCache.getHitCount(), 2);
+        assertEquals(resourceCache.getTotalBytes(), 520);
+
+        // A second loader sharing the cache has its own entries, which survive closing the first.
+        JarPluginClassLoader otherClassLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        otherClassLoader.setResourceCache(resourceCache);
+        otherClassLoader.getResourceAsStream("hello/TestComponent.class").close();
+        assertEquals(resourceCache.getMissCount(), 2);
+        assertEquals(resourceCache.getEntryCount(), 2);
+        classLoader.close();
+        assertEquals(resourceCache.getEntryCount(), 1);
+        otherClassLoader.getResourceAsStream("hello/TestComponent.class").close();
+        assertEquals(resourceCache.getHitCount(), 3);
+
+        // Loaders are held weakly; one dropped without close() is still collected.
+        WeakReference<JarPluginClassLoader> otherReference = new WeakReference<>(otherClassLoader);
+        otherClassLoader = null;
+        assertTrue(awaitCollected(otherReference));
+        Object unrelated = new Object();
+        resourceCache.put(unrelated, "unrelated", new byte[1]);
+        assertEquals(resourceCache.getEntryCount(), 1);
+        assertEquals(resourceCache.getTotalBytes(), 1);
+
+        Object owner = new Object();
+        ResourceCache smallCache = new ResourceCache(100, 60);
+        smallCache.put(owner, "a", new byte[50]);
+        smallCache.put(owner, "b", new byte[50]);
+        smallCache.get(owner, "a");
+        smallCache.put(owner, "c", new byte[50]);
+        assertEquals(smallCache.getEvictionCount(), 1);
+        assertTrue(smallCache.get(owner, "b") == null);
+        assertTrue(smallCache.get(new Object(), "a") == null);
+        smallCache.put(owner, "d", new byte[61]);
+        assertEquals(smallCache.getEntryCount(), 2);
+    }
+
+    /**
+     * @return true once the referent was garbage collected
+     */
+    private static boolean awaitCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return reference.get() == null;
+    }
+
+    @Test
+    public void testClassPrefetch(@TempDir File directory) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            sources.put("prefetch.C" + i, "public class C" + i + " {}");
+        }
+        File file = TestJars.writeJar(new File(directory, "prefetch.jar"), TestJars.compile(directory, sources), "prefetch/");
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        ClassPrefetcher classPrefetcher = new ClassPrefetcher(1, TimeUnit.SECONDS, 1024 * 1024);
+        classLoader.setClassPrefetcher(classPrefetcher);
+
+        // The first class reads the whole package; the requested class itself is not kept.
+        classLoader.loadClass("prefetch.C0");
+        assertEquals(classPrefetcher.getPrefetchCount(), 9);
+        classLoader.loadClass("prefetch.C1");
+        assertEquals(classPrefetcher.getUsedCount(), 1);
+
+        // The other prefetched classes expire without further class loading.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (classPrefetcher.getDroppedCount() < 8 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(classPrefetcher.getDroppedCount(), 8);
+        classLoader.loadClass("prefetch.C2");
+        assertEquals(classPrefetcher.getUsedCount(), 1);
+
+        // The byte limit also holds for the classes before the requested one.
+        JarPluginClassLoader limitedClassLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        ClassPrefetcher limitedPrefetcher = new ClassPrefetcher(1, TimeUnit.MINUTES, 1);
+        limitedClassLoader.setClassPrefetcher(limitedPrefetcher);
+        limitedClassLoader.loadClass("prefetch.C9");
+        assertEquals(limitedPrefetcher.getPrefetchCount(), 0);
+        limitedClassLoader.loadClass("prefetch.C0");
+        assertEquals(limitedPrefetcher.getUsedCount(), 0);
+        limitedClassLoader.close();
+    }
+
+    @Test
+    public void testServiceIndex(@TempDir File directory) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String name : new String[]{"P1", "P2", "P3"}) {
+            sources.put("svc." + name, "public class " + name + " implements Runnable { public void run() {} }");
+        }
+        sources.put("svc.NotCallable", "public class NotCallable {}");
+        sources.put("svc.Throwing", "public class Throwing implements java.util.concurrent.Callable<String> {\n"
+                + "    public Throwing() { throw new IllegalStateException(); }\n"
+                + "    public String call() { return null; }\n"
+                + "}");
+        Path classes = TestJars.compile(directory, sources);
+        Map<String, byte[]> firstServices = new LinkedHashMap<>();
+        firstServices.put("META-INF/services/java.lang.Runnable", "# providers\nsvc.P1   # first\n\n  svc.P2\nsvc.P1\n".getBytes(StandardCharsets.UTF_8));
+        firstServices.put("META-INF/services/java.util.concurrent.Callable", "svc.Missing\nsvc.NotCallable\n".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> secondServices = new LinkedHashMap<>();
+        secondServices.put("META-INF/services/java.lang.Runnable", "svc.P3\nsvc.P2\n".getBytes(StandardCharsets.UTF_8));
+        secondServices.put("META-INF/services/java.util.concurrent.Callable", "svc.Throwing".getBytes(StandardCharsets.UTF_8));
+        File first = TestJars.writeJar(new File(directory, "first.jar"), classes, "svc/", null, firstServices);
+        File second = TestJars.writeJar(new File(directory, "second.jar"), classes, "svc/P3", null, secondServices);
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Arrays.asList(first, second),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+
+        // The index is built on seal(), before the jar files are closed.
+        classLoader.lock();
+        classLoader.seal();
+        assertEquals(classLoader.getServiceIndex().getServiceNames().size(), 2);
+        assertEquals(classLoader.getServiceProviderNames(Runnable.class), Arrays.asList("svc.P1", "svc.P2", "svc.P3"));
+        assertTrue(classLoader.getServiceProviderNames(Comparable.class).isEmpty());
+        List<String> instantiated = new ArrayList<>();
+        for (Runnable runnable : classLoader.loadServices(Runnable.class)) {
+            assertTrue(runnable.getClass().getClassLoader() == classLoader);
+            instantiated.add(runnable.getClass().getName());
+        }
+        assertEquals(instantiated, Arrays.asList("svc.P1", "svc.P2", "svc.P3"));
+
+        // Providers are only loaded while iterating, and each failure is reported on its own.
+        Iterator<Callable> callables = classLoader.loadServices(Callable.class).iterator();
+        assertTrue(callables.hasNext());
+        assertTrue(assertThrows(ServiceConfigurationError.class, callables::next).getMessage().endsWith("svc.Missing not found"));
+        assertTrue(assertThrows(ServiceConfigurationError.class, callables::next).getMessage().endsWith("svc.NotCallable not a subtype"));
+        assertTrue(assertThrows(ServiceConfigurationError.class, callables::next).getMessage().endsWith("svc.Throwing could not be instantiated"));
+        assertFalse(callables.hasNext());
+    }
+
+    @Test
+    public void testScanClasses(@TempDir File cacheDirectory) throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        for (int i = 0; i < 2; i++) {
+            List<ClassMetadata> classes = classLoader.scanClasses(cacheDirectory);
+            assertEquals(classes.size(), 1);
+            assertEquals(classes.get(0).getName(), "hello.TestComponent");
+            assertEquals(classes.get(0).getSuperName(), "java.lang.Object");
+        }
+        assertEquals(cacheDirectory.list().length, 1);
+    }
+
+    @Test
+    public void testScanClassMetadata(@TempDir File directory) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("scan.Visible", "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n"
+                + "public @interface Visible {\n"
+                + "    String value();\n"
+                + "    int[] numbers() default {};\n"
+                + "    Inner inner();\n"
+                + "    Inner[] inners() default {};\n"
+                + "    java.lang.annotation.ElementType kind();\n"
+                + "    Class<?> type();\n"
+                + "}");
+        sources.put("scan.Inner", "public @interface Inner { String[] names(); }");
+        sources.put("scan.Invisible", "public @interface Invisible { long size(); double ratio(); }");
+        sources.put("scan.Sample", "@Visible(value = \"v\", numbers = {1, 2}, inner = @Inner(names = {\"a\", \"b\"}),\n"
+                + "        inners = {@Inner(names = \"c\"), @Inner(names = {})}, kind = java.lang.annotation.ElementType.TYPE, type = String.class)\n"
+                + "@Invisible(size = 1L << 40, ratio = 0.5)\n"
+                + "public abstract class Sample extends java.io.InputStream implements java.io.Serializable, Runnable {\n"
+                + "    private long wide = 123456789012L;\n"
+                + "    private double real = 1.25;\n"
+                + "    public Runnable task() { return () -> System.out.println(\"run\" + wide + real); }\n"
+                + "}");
+        Path classes = TestJars.compile(directory, sources);
+        byte[] classFile = Files.readAllBytes(classes.resolve("scan/Sample.class"));
+
+        ClassMetadata metadata = ClassScanner.parse(new File("sample.jar"), classFile);
+        assertEquals(metadata.getName(), "scan.Sample");
+        assertEquals(metadata.getSuperName(), "java.io.InputStream");
+        assertEquals(metadata.getInterfaces(), Arrays.asList("java.io.Serializable", "java.lang.Runnable"));
+        assertEquals(new HashSet<>(metadata.getAnnotations()), new HashSet<>(Arrays.asList("scan.Visible", "scan.Invisible")));
+        assertTrue(metadata.isAbstract());
+        assertTrue(ClassScanner.parse(new File("sample.jar"), Files.readAllBytes(classes.resolve("scan/Visible.class"))).isInterface());
+
+        // A truncated class file fails instead of yielding partial metadata.
+        for (int length : new int[]{classFile.length - 1, classFile.length / 2, 12}) {
+            byte[] truncated = Arrays.copyOf(classFile, length);
+            assertThrows(IOException.class, () -> ClassScanner.parse(new File("sample.jar"), truncated));
+        }
+    }
+
+    @Test
+    public void testResourceUrlAfterClose() throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        URL resourceUrl = classLoader.getResource("hello/TestComponent.class");
+        assertEquals(resourceUrl.toString(), "jar:" + file.toURI() + "!/hello/TestComponent.class");
+        try (InputStream inputStream = resourceUrl.openStream()) {
+            int length = 0;
+            while (inputStream.read() >= 0) length++;
+            assertEquals(length, 520);
+        }
+        classLoader.close();
+        assertTrue(classLoader.isClosed());
+        assertThrows(IOException.class, resourceUrl::openStream);
+        assertTrue(classLoader.getResourceAsStream("hello/TestComponent.class") == null);
+    }
+
+    @Test
+    public void testResourceUrlDoesNotPinLoader() throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        URL resourceUrl = classLoader.getResource("hello/TestComponent.class");
+        classLoader.close();
+        WeakReference<JarPluginClassLoader> reference = new WeakReference<>(classLoader);
+        classLoader = null;
+        assertTrue(awaitCollected(reference));
+        assertThrows(IOException.class, resourceUrl::openStream);
+    }
+
+    @Test
+    public void testResourceUrlResolution() throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-nonsigned.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(true));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        String base = "jar:" + file.toURI() + "!";
+        URL resourceUrl = classLoader.getResource("hello/TestComponent.class");
+
+        URL manifestUrl = new URL(resourceUrl, "/META-INF/MANIFEST.MF");
+        assertEquals(manifestUrl.toString(), base + "/META-INF/MANIFEST.MF");
+        assertEquals(readAll(manifestUrl).length, 25);
+        assertEquals(new URL(resourceUrl, "../META-INF/./MANIFEST.MF").toString(), base + "/META-INF/MANIFEST.MF");
+        assertEquals(new URL(resourceUrl, "TestComponent.class").toString(), base + "/hello/TestComponent.class");
+        assertEquals(new URL(resourceUrl, "#top").toString(), base + "/hello/TestComponent.class#top");
+        assertEquals(new URL(resourceUrl, base + "/hello/").toString(), base + "/hello/");
+        assertThrows(MalformedURLException.class, () -> new URL(resourceUrl, "jar:" + file.toURI()));
+        assertEquals(readAll(new URL(resourceUrl, "TestComponent.class")).length, 520);
+
+        // Equal to the JDK jar handler's URL of the same entry, with the same hash code.
+        URL jdkUrl = new URL(resourceUrl.toString());
+        assertTrue(resourceUrl.equals(jdkUrl));
+        assertTrue(jdkUrl.equals(resourceUrl));
+        assertEquals(resourceUrl.hashCode(), jdkUrl.hashCode());
+        assertTrue(resourceUrl.sameFile(new URL(resourceUrl, "#top")));
+        assertFalse(resourceUrl.equals(manifestUrl));
+
+        // getJarFile() hands out a handle the caller owns; closing it leaves the loader usable.
+        JarURLConnection connection = (JarURLConnection) resourceUrl.openConnection();
+        try (JarFile jarFile = connection.getJarFile()) {
+            assertTrue(jarFile.getEntry("hello/TestComponent.class") != null);
+        }
+        assertEquals(readAll(resourceUrl).length, 520);
+        JarFile unclosed = ((JarURLConnection) resourceUrl.openConnection()).getJarFile();
+        classLoader.close();
+        assertThrows(IllegalStateException.class, () -> unclosed.getEntry("hello/TestComponent.class"));
+    }
+
+    private static byte[] readAll(URL url) throws IOException {
+        try (InputStream inputStream = url.openStream()) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+    @Test
+    public void testSeal() throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-signed.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(false));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(file),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        assertThrows(IllegalStateException.class, classLoader::seal);
+        classLoader.lock();
+        SealReport report = classLoader.seal();
+        assertTrue(classLoader.isSealed());
+        assertEquals(report.getJarCount(), 1);
+        assertTrue(report.getReleasedBytes() > 0);
+        classLoadAndRun(classLoader);
+        try (InputStream inputStream = classLoader.getResourceAsStream("hello/TestComponent.class")) {
+            int length = 0;
+            while (inputStream.read() >= 0) length++;
+            assertEquals(length, 520);
+        }
+        assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("hello.Missing"));
+    }
+
+    @Test
+    public void testSealChecksManifestDigests(@TempDir File directory) throws Exception {
+        // Repackage the signed jar with the class stored, so it can be modified in place.
+        File signed = new File(this.getClass().getResource("/test-component-1.0.1-signed.jar").getPath());
+        File jar = new File(directory, "stored-signed.jar");
+        byte[] classContent = null;
+        try (ZipInputStream input = new ZipInputStream(new FileInputStream(signed));
+             ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+            ZipEntry entry;
+            while ((entry = input.getNextEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = input.read(buffer)) >= 0) {
+                    content.write(buffer, 0, length);
+                }
+                ZipEntry copy = new ZipEntry(entry.getName());
+                if (entry.getName().equals("hello/TestComponent.class")) {
+                    classContent = content.toByteArray();
+                    CRC32 crc32 = new CRC32();
+                    crc32.update(classContent);
+                    copy.setMethod(ZipEntry.STORED);
+                    copy.setSize(classContent.length);
+                    copy.setCrc(crc32.getValue());
+                }
+                output.putNextEntry(copy);
+                content.writeTo(output);
+                output.closeEntry();
+            }
+        }
+
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(false));
+        JarPluginClassLoader classLoader =
+                JarPluginClassLoader.newInstance(
+                        Collections.singletonList(jar),
+                        this.getClass().getClassLoader(),
+                        verifier
+                );
+        classLoader.lock();
+        classLoader.seal();
+
+        // Same size, time and CRC-32 as the signed class, different content.
+        byte[] tampered = classContent.clone();
+        tampered[10] ^= 1;
+        CRC32 crc32 = new CRC32();
+        crc32.update(classContent);
+        forceCrc(tampered, tampered.length - 4, (int) crc32.getValue());
+        byte[] jarContent = Files.readAllBytes(jar.toPath());
+        long lastModified = jar.lastModified();
+        int offset = indexOf(jarContent, classContent);
+        System.arraycopy(tampered, 0, jarContent, offset, tampered.length);
+        Files.write(jar.toPath(), jarContent);
+        assertTrue(jar.setLastModified(lastModified));
+
+        assertThrows(ClassNotFoundException.class, () -> classLoader.loadClass("hello.TestComponent"));
+        ClassNotFoundException e = assertThrows(ClassNotFoundException.class, () -> classLoader.getLocalLoader().loadClass("hello.TestComponent", false));
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(e.getCause().getMessage(), "manifest digest mismatch: hello/TestComponent.class");
+        classLoader.close();
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        for (int i = 0; i + part.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + part.length), part)) return i;
+        }
+        throw new AssertionError("not found");
+    }
+
+    /**
+     * Overwrites the 4 bytes at the offset so that the CRC-32 of the data becomes the target.
+     */
+    private static void forceCrc(byte[] data, int offset, int target) {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0xEDB88320 : c >>> 1;
+            }
+            table[i] = c;
+        }
+        CRC32 prefix = new CRC32();
+        prefix.update(data, 0, offset);
+        int before = ~(int) prefix.getValue();
+        // Run the register back from the target over the suffix and the 4 bytes to patch.
+        int state = ~target;
+        for (int i = data.length - 1; i >= offset; i--) {
+            int index = 0;
+            while ((table[index] >>> 24) != (state >>> 24)) index++;
+            int b = i >= offset + 4 ? data[i] & 0xff : 0;
+            state = ((state ^ table[index]) << 8) | ((index ^ b) & 0xff);
+        }
+        int patch = state ^ before;
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (patch >>> (8 * i));
+        }
+    }
+
+    @Test
+    public void testExtractedJarCache(@TempDir File cacheDirectory) throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-signed.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(false));
+        ExtractedJarCache extractedJarCache = new ExtractedJarCache(cacheDirectory);
+        File extracted = null;
+        for (int i = 0; i < 2; i++) {
+            JarPluginClassLoader classLoader = new JarPluginClassLoader(
+                    Collections.singletonList(file),
+                    this.getClass().getClassLoader(),
+                    verifier,
+                    null,
+                    null,
+                    null,
+                    extractedJarCache
+            );
+            classLoadAndRun(classLoader);
+            List<URL> list = Collections.list(classLoader.getResources("hello/"));
+            assertEquals(list.size(), 2);
+            File directory = classLoader.getJarFiles().get(0).getFile();
+            assertTrue(directory.isDirectory());
+            if (extracted != null) {
+                assertEquals(directory, extracted);
+            }
+            extracted = directory;
+            classLoader.close();
+        }
+
+        // An exploded directory has no signatures.
+        File exploded = extracted;
+        assertThrows(SecurityException.class, () -> JarPluginClassLoader.newInstance(
+                Collections.singletonList(exploded),
+                this.getClass().getClassLoader(),
+                verifier
+        ));
+        JarPluginClassLoader classLoader = JarPluginClassLoader.newInstance(
+                Collections.singletonList(exploded),
+                this.getClass().getClassLoader(),
+                new JarVerifier(new DefaultVerificationHandler(true))
+        );
+        classLoadAndRun(classLoader);
+    }
+
+    @Test
+    public void testExtractedJarCacheConcurrentExtract(@TempDir File cacheDirectory) throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-signed.jar");
+        File file = new File(url.getPath());
+        JarVerifier verifier = new JarVerifier(new DefaultVerificationHandler(false));
+        ExtractedJarCache extractedJarCache = new ExtractedJarCache(cacheDirectory);
+
+        // An extraction left without its marker is replaced.
+        File extracted = extractedJarCache.extract(file, verifier);
+        File marker = new File(extracted.getPath() + ".verified");
+        assertTrue(marker.delete());
+        assertTrue(new File(extracted, "hello/TestComponent.class").delete());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> extractedJarCache.extract(file, verifier)));
+            }
+            for (Future<File> future : futures) {
+                assertEquals(future.get(), extracted);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(marker.isFile());
+        assertTrue(new File(extracted, "hello/TestComponent.class").isFile());
+        // Only the extraction, its marker and its lock file are left.
+        assertEquals(cacheDirectory.list().length, 3);
+    }
+
+    @Test
+    public void testExtractedJarCacheReplaysSigners(@TempDir File cacheDirectory) throws Exception {
+        URL url = this.getClass().getResource("/test-component-1.0.1-signed.jar");
+        File file = new File(url.getPath());
+        ExtractedJarCache extractedJarCache = new ExtractedJarCache(cacheDirectory);
+        JarVerifier permissive = new JarVerifier(new JarVerificationHandler() {
+            @Override
+            public void start(JarVerificationContext context) {
+                context.setVerified(true);
+            }
+
+            @Override
+            public void verify(JarVerificationContext context, List<X509Certificate> chain) {
+            }
+
+            @Override
+            public void end(JarVerificationContext context) {
+            }
+        });
+        JarVerifier strict = new JarVerifier(new JarVerificationHandler() {
+            @Override
+            public void start(JarVerificationContext context) {
+                context.setVerified(false);
+            }
+
+            @Override
+            public void verify(JarVerificationContext context, List<X509Certificate> chain) {
+                context.setVerified(chain.get(0).getSubjectDN().toString().equalsIgnoreCase("C=KR,O=Test,CN=Trusted Signer"));
+            }
+
+            @Override
+            public void end(JarVerificationContext context) {
+            }
+        });
+
+        File extracted = extractedJarCache.extract(file, permissive);
+        // The cached extraction is not trusted by a stricter verifier.
+        assertThrows(SecurityException.class, () -> extractedJarCache.extract(file, strict));
+        // The recorded signer is still accepted by a verifier trusting it.
+        assertEquals(extractedJarCache.extract(file, new JarVerifier(new DefaultVerificationHandler(false))), extracted);
+        // Unsigned jars are recorded without signers.
+        File unsigned = new File(this.getClass().getResource("/test-component-1.0.1-nonsigned.jar").getPath());
+        extractedJarCache.extract(unsigned, permissive);
+        assertThrows(SecurityException.class, () -> extractedJarCache.extract(unsigned, new JarVerifier(new DefaultVerificationHandler(false))));
+    }
 }
@@ -0,0 +1,499 @@
+import kr.jclab.javautils.pluginloader.ClassPrefetcher;
+import kr.jclab.javautils.pluginloader.JarPluginClassLoader;
+import kr.jclab.javautils.pluginloader.JarVerifier;
+import kr.jclab.javautils.pluginloader.ProxyClassLoader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Concurrency stress harness: two multi-jar plugins whose class graphs cross each other through
+ * custom {@link ProxyClassLoader}s are loaded from many threads at once.
+ *
+ * Each run reports throughput, lock wait time and duplicate definition attempts, and fails on
+ * deadlocks, unexpected errors, classes defined twice and streams left open by close().
+ * Sizes can be raised with -Dstress.threads, -Dstress.classes and -Dstress.rounds.
+ */
+public class ConcurrentClassLoadingTest {
+    private static final int THREADS = Integer.getInteger("stress.threads", 16);
+    private static final int CLASSES = Integer.getInteger("stress.classes", 120);
+    private static final int ROUNDS = Integer.getInteger("stress.rounds", 3);
+    private static final int MARKERS = 10;
+    private static final int RESOURCES = 20;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Counts define attempts; {@link #getProtectionDomain} is called right before each defineClass.
+     */
+    public static class CountingClassLoader extends JarPluginClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        final ConcurrentHashMap<String, AtomicInteger> defineAttempts = new ConcurrentHashMap<>();
+
+        public CountingClassLoader(List<File> files, ClassLoader parent, JarVerifier jarVerifier) throws IOException {
+            super(files, parent, jarVerifier, null, null);
+        }
+
+        @Override
+        protected ProtectionDomain getProtectionDomain(String className, JarFile jarFile, JarEntry jarEntry) {
+            this.defineAttempts.computeIfAbsent(className, (key) -> new AtomicInteger()).incrementAndGet();
+            return null;
+        }
+
+        int duplicateDefineAttempts() {
+            int duplicates = 0;
+            for (AtomicInteger attempts : this.defineAttempts.values()) {
+                duplicates += attempts.get() - 1;
+            }
+            return duplicates;
+        }
+    }
+
+    /**
+     * Delegates the classes of another plugin to that plugin's loader.
+     */
+    public static class PluginProxyClassLoader extends ProxyClassLoader {
+        private final String packagePrefix;
+        private final ClassLoader target;
+
+        public PluginProxyClassLoader(String packagePrefix, ClassLoader target) {
+            this.packagePrefix = packagePrefix;
+            this.target = target;
+            this.setOrder(10);
+        }
+
+        @Override
+        public Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(this.packagePrefix)) return null;
+            return this.target.loadClass(name);
+        }
+    }
+
+    private static class Plugins implements Closeable {
+        final CountingClassLoader a;
+        final CountingClassLoader b;
+        final List<File> jars;
+
+        Plugins(CountingClassLoader a, CountingClassLoader b, List<File> jars) {
+            this.a = a;
+            this.b = b;
+            this.jars = jars;
+        }
+
+        CountingClassLoader loaderOf(String className) {
+            return className.startsWith("stress.a.") ? this.a : this.b;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.a.close();
+            } finally {
+                this.b.close();
+            }
+        }
+    }
+
+    private static class Stats {
+        final AtomicLong loads = new AtomicLong();
+        final AtomicLong blockedMillis = new AtomicLong();
+        final AtomicLong waitedMillis = new AtomicLong();
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        void recordLockTime() {
+            ThreadInfo info = THREAD_MX_BEAN.getThreadInfo(Thread.currentThread().getId());
+            if (info != null && info.getBlockedTime() >= 0) {
+                this.blockedMillis.addAndGet(info.getBlockedTime());
+                this.waitedMillis.addAndGet(Math.max(0, info.getWaitedTime()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldLoadCrossLoaderGraphConcurrently(@TempDir File directory) throws Exception {
+        List<String> classNames = classNames();
+        for (int round = 0; round < ROUNDS; round++) {
+            File roundDirectory = new File(directory, "round-" + round);
+            List<InputStream> unclosedStreams = Collections.synchronizedList(new ArrayList<>());
+            Stats stats = new Stats();
+            long elapsed;
+            Plugins plugins = createPlugins(roundDirectory);
+            try {
+                elapsed = runWorkers(stats, (worker) -> {
+                    List<String> order = new ArrayList<>(classNames);
+                    Collections.shuffle(order, new Random(worker));
+                    for (String className : order) {
+                        Class<?> clazz = Class.forName(className, true, plugins.loaderOf(className));
+                        Object instance = clazz.getDeclaredConstructor().newInstance();
+                        Method depth = clazz.getMethod("depth");
+                        assertEquals(depthOf(className), depth.invoke(instance));
+                        stats.loads.incrementAndGet();
+                    }
+                    for (int i = 0; i < RESOURCES; i++) {
+                        String resource = "stress/a/res/R" + ((i + worker) % RESOURCES) + ".txt";
+                        InputStream inputStream = plugins.a.getResourceAsStream(resource);
+                        assertNotNull(inputStream, resource);
+                        if (i % 2 == 0) {
+                            try (InputStream closing = inputStream) {
+                                assertEquals('R', closing.read());
+                            }
+                        } else {
+                            assertEquals('R', inputStream.read());
+                            unclosedStreams.add(inputStream);
+                        }
+                    }
+                });
+
+                assertEquals(0, plugins.a.duplicateDefineAttempts(), "duplicate define attempts in plugin a");
+                assertEquals(0, plugins.b.duplicateDefineAttempts(), "duplicate define attempts in plugin b");
+                assertEquals(classNames.size() + 2 * MARKERS, plugins.a.defineAttempts.size() + plugins.b.defineAttempts.size());
+                Class<?> top = plugins.a.loadClass("stress.a.A" + (CLASSES - 1));
+                assertSame(plugins.b, top.getSuperclass().getClassLoader());
+            } finally {
+                plugins.close();
+            }
+
+            assertNoErrors(stats);
+            for (InputStream inputStream : unclosedStreams) {
+                assertThrows(IOException.class, inputStream::read, "stream left open after close()");
+            }
+            assertNoOpenHandles(plugins.jars);
+            report("cross-loader", round, stats, elapsed, 0);
+        }
+    }
+
+    @Test
+    public void shouldRecoverFromConcurrentLocalDefinitions(@TempDir File directory) throws Exception {
+        List<String> classNames = classNames();
+        Stats stats = new Stats();
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ConcurrentHashMap<String, Class<?>> results = new ConcurrentHashMap<>();
+        long elapsed;
+        int duplicates;
+        Plugins plugins = createPlugins(directory);
+        try {
+            // LocalLoader is public and takes no class loading lock, so concurrent callers race
+            // into defineClass and exercise the LinkageError recovery path.
+            elapsed = runWorkers(stats, (worker) -> {
+                for (String className : classNames) {
+                    barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    Class<?> clazz = plugins.loaderOf(className).getLocalLoader().loadClass(className, false);
+                    assertNotNull(clazz, className);
+                    Class<?> previous = results.putIfAbsent(className, clazz);
+                    if (previous != null) {
+                        assertSame(previous, clazz, className);
+                    }
+                    stats.loads.incrementAndGet();
+                }
+            });
+            duplicates = plugins.a.duplicateDefineAttempts() + plugins.b.duplicateDefineAttempts();
+        } finally {
+            plugins.close();
+        }
+
+        assertNoErrors(stats);
+        assertEquals(classNames.size(), results.size());
+        report("local-race", 0, stats, elapsed, duplicates);
+    }
+
+    @Test
+    public void shouldCloseUnderLoad(@TempDir File directory) throws Exception {
+        List<String> classNames = classNames();
+        Stats stats = new Stats();
+        Plugins plugins = createPlugins(directory);
+        CountDownLatch started = new CountDownLatch(THREADS);
+        ExecutorService runner = Executors.newSingleThreadExecutor(ConcurrentClassLoadingTest::daemonThread);
+        Future<Long> workers = runner.submit(() -> runWorkers(stats, (worker) -> {
+            started.countDown();
+            List<String> order = new ArrayList<>(classNames);
+            Collections.shuffle(order, new Random(worker));
+            for (String className : order) {
+                try {
+                    plugins.loaderOf(className).loadClass(className);
+                    stats.loads.incrementAndGet();
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // expected once the loaders are closed
+                }
+                try (InputStream inputStream = plugins.a.getResourceAsStream("stress/a/res/R0.txt")) {
+                    if (inputStream != null) {
+                        inputStream.read();
+                    }
+                } catch (IOException e) {
+                    // expected once the loaders are closed
+                }
+            }
+        }));
+
+        started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        plugins.close();
+        long elapsed;
+        try {
+            elapsed = workers.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } finally {
+            runner.shutdownNow();
+        }
+
+        assertNoErrors(stats);
+        assertTrue(plugins.a.isClosed() && plugins.b.isClosed());
+        assertNull(plugins.a.getResourceAsStream("stress/a/res/R0.txt"));
+        assertNoOpenHandles(plugins.jars);
+        report("close", 0, stats, elapsed, 0);
+    }
+
+    @Test
+    public void shouldSealUnderLoad(@TempDir File directory) throws Exception {
+        List<String> classNames = classNames();
+        for (int round = 0; round < ROUNDS; round++) {
+            Stats stats = new Stats();
+            Plugins plugins = createPlugins(new File(directory, "round-" + round), new ClassPrefetcher(1, TimeUnit.MINUTES, 1 << 20));
+            CountDownLatch started = new CountDownLatch(THREADS);
+            ExecutorService runner = Executors.newSingleThreadExecutor(ConcurrentClassLoadingTest::daemonThread);
+            long elapsed;
+            try {
+                Future<Long> workers = runner.submit(() -> runWorkers(stats, (worker) -> {
+                    started.countDown();
+                    List<String> order = new ArrayList<>(classNames);
+                    Collections.shuffle(order, new Random(worker));
+                    for (String className : order) {
+                        // Classes exist before and after seal(), so none may fail while it runs.
+                        assertNotNull(plugins.loaderOf(className).loadClass(className));
+                        stats.loads.incrementAndGet();
+                        String resource = "stress/a/res/R" + (stats.loads.get() % RESOURCES) + ".txt";
+                        try (InputStream inputStream = plugins.a.getResourceAsStream(resource)) {
+                            assertNotNull(inputStream, resource);
+                            inputStream.read();
+                        } catch (IOException e) {
+                            // streams opened from the jars before seal() are closed by it
+                        }
+                    }
+                }));
+
+                started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                plugins.a.seal();
+                plugins.b.seal();
+                elapsed = workers.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                assertNoErrors(stats);
+                assertTrue(plugins.a.isSealed() && plugins.b.isSealed());
+                for (String className : classNames) {
+                    assertNotNull(plugins.loaderOf(className).loadClass(className));
+                }
+                assertNoOpenHandles(plugins.jars);
+            } finally {
+                runner.shutdownNow();
+                plugins.close();
+            }
+            report("seal", round, stats, elapsed, 0);
+        }
+    }
+
+    private interface Worker {
+        void run(int worker) throws Exception;
+    }
+
+    /**
+     * Runs the worker on all threads and fails on a deadlock or timeout.
+     *
+     * @return elapsed nanoseconds
+     */
+    private static long runWorkers(Stats stats, Worker worker) throws Exception {
+        if (THREAD_MX_BEAN.isThreadContentionMonitoringSupported()) {
+            THREAD_MX_BEAN.setThreadContentionMonitoringEnabled(true);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, ConcurrentClassLoadingTest::daemonThread);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < THREADS; i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> {
+                    try {
+                        worker.run(index);
+                    } catch (Throwable e) {
+                        stats.errors.add(e);
+                    } finally {
+                        stats.recordLockTime();
+                    }
+                    return null;
+                }));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(1, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        assertNoDeadlock();
+                        if (System.nanoTime() > deadline) {
+                            fail("workers did not finish in " + TIMEOUT_SECONDS + "s:\n" + dumpThreads(THREAD_MX_BEAN.dumpAllThreads(true, true)));
+                        }
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Daemon threads, so that deadlocked workers do not keep the test JVM alive.
+     */
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void assertNoDeadlock() {
+        long[] deadlocked = THREAD_MX_BEAN.findDeadlockedThreads();
+        if (deadlocked != null) {
+            fail("deadlock detected:\n" + dumpThreads(THREAD_MX_BEAN.getThreadInfo(deadlocked, true, true)));
+        }
+    }
+
+    private static String dumpThreads(ThreadInfo[] threadInfos) {
+        StringBuilder builder = new StringBuilder();
+        for (ThreadInfo threadInfo : threadInfos) {
+            if (threadInfo == null) continue;
+            builder.append(threadInfo.getThreadName()).append(" ").append(threadInfo.getThreadState());
+            if (threadInfo.getLockName() != null) {
+                builder.append(" on ").append(threadInfo.getLockName()).append(" owned by ").append(threadInfo.getLockOwnerName());
+            }
+            builder.append('\n');
+            for (StackTraceElement element : threadInfo.getStackTrace()) {
+                builder.append("\tat ").append(element).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void assertNoErrors(Stats stats) {
+        if (!stats.errors.isEmpty()) {
+            AssertionError error = new AssertionError(stats.errors.size() + " worker(s) failed");
+            for (Throwable e : stats.errors) {
+                error.addSuppressed(e);
+            }
+            throw error;
+        }
+    }
+
+    /**
+     * Checks that the process no longer has file handles on the jars (Linux only).
+     */
+    private static void assertNoOpenHandles(List<File> jars) throws IOException {
+        Path fdDirectory = Paths.get("/proc/self/fd");
+        if (!Files.isDirectory(fdDirectory)) return;
+        Set<Path> jarPaths = new HashSet<>();
+        for (File jar : jars) {
+            jarPaths.add(jar.toPath().toRealPath());
+        }
+        List<Path> open = new ArrayList<>();
+        try (Stream<Path> fds = Files.list(fdDirectory)) {
+            fds.forEach((fd) -> {
+                try {
+                    Path target = Files.readSymbolicLink(fd);
+                    if (jarPaths.contains(target)) open.add(target);
+                } catch (IOException e) {
+                    // closed while listing
+                }
+            });
+        }
+        assertTrue(open.isEmpty(), "jar files still open: " + open);
+    }
+
+    private static void report(String name, int round, Stats stats, long elapsedNanos, int duplicates) {
+        System.out.printf("[stress] %-12s round=%d threads=%d loads=%d elapsed=%.1fms throughput=%.0f/s blocked=%dms waited=%dms duplicateDefines=%d%n",
+                name, round, THREADS, stats.loads.get(), elapsedNanos / 1e6, stats.loads.get() / (elapsedNanos / 1e9),
+                stats.blockedMillis.get(), stats.waitedMillis.get(), duplicates);
+    }
+
+    private static List<String> classNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < CLASSES; i++) {
+            names.add("stress.a.A" + i);
+            names.add("stress.b.B" + i);
+        }
+        return names;
+    }
+
+    private static int depthOf(String className) {
+        return Integer.parseInt(className.substring("stress.a.A".length()));
+    }
+
+    /**
+     * Generates plugin a (stress.a) and plugin b (stress.b), each as an implementation jar and an
+     * api jar. Ai extends B(i-1) and Bi extends A(i-1), so every superclass chain alternates
+     * between the two loaders; each class also implements a marker interface from its api jar.
+     */
+    private static Plugins createPlugins(File directory) throws Exception {
+        return createPlugins(directory, null);
+    }
+
+    private static Plugins createPlugins(File directory, ClassPrefetcher classPrefetcher) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String plugin : new String[]{"a", "b"}) {
+            String other = plugin.equals("a") ? "b" : "a";
+            String prefix = plugin.toUpperCase();
+            String otherPrefix = other.toUpperCase();
+            for (int k = 0; k < MARKERS; k++) {
+                sources.put("stress." + plugin + ".api.Marker" + k, "public interface Marker" + k + " { int depth(); }");
+            }
+            for (int i = 0; i < CLASSES; i++) {
+                String superclass = i == 0 ? "" : " extends stress." + other + "." + otherPrefix + (i - 1);
+                sources.put("stress." + plugin + "." + prefix + i,
+                        "public class " + prefix + i + superclass + " implements stress." + plugin + ".api.Marker" + (i % MARKERS) + " {\n"
+                                + "    public int depth() { return " + i + "; }\n"
+                                + "}");
+            }
+        }
+        Path classes = TestJars.compile(directory, sources);
+
+        Map<String, byte[]> resources = new LinkedHashMap<>();
+        for (int i = 0; i < RESOURCES; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 4096; j++) {
+                content.append("R").append(i).append('\n');
+            }
+            resources.put("stress/a/res/R" + i + ".txt", content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        File aImpl = TestJars.writeJar(new File(directory, "plugin-a.jar"), classes, "stress/a/", "stress/a/api/", resources);
+        File aApi = TestJars.writeJar(new File(directory, "plugin-a-api.jar"), classes, "stress/a/api/");
+        File bImpl = TestJars.writeJar(new File(directory, "plugin-b.jar"), classes, "stress/b/", "stress/b/api/", Collections.emptyMap());
+        File bApi = TestJars.writeJar(new File(directory, "plugin-b-api.jar"), classes, "stress/b/api/");
+
+        JarVerifier verifier = new JarVerifier(new BasicTest.DefaultVerificationHandler(true));
+        ClassLoader parent = ConcurrentClassLoadingTest.class.getClassLoader();
+        CountingClassLoader a = new CountingClassLoader(Arrays.asList(aImpl, aApi), parent, verifier);
+        CountingClassLoader b = new CountingClassLoader(Arrays.asList(bImpl, bApi), parent, verifier);
+        a.addLoader(new PluginProxyClassLoader("stress.b.", b));
+        b.addLoader(new PluginProxyClassLoader("stress.a.", a));
+        a.setClassPrefetcher(classPrefetcher);
+        b.setClassPrefetcher(classPrefetcher);
+        a.lock();
+        b.lock();
+        return new Plugins(a, b, Arrays.asList(aImpl, aApi, bImpl, bApi));
+    }
+}
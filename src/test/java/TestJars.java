@@ -0,0 +1,81 @@
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Generates plugin jars for tests from Java sources compiled at test time.
+ */
+final class TestJars {
+    private TestJars() {
+    }
+
+    /**
+     * Compiles the sources into {@code <directory>/classes}.
+     *
+     * @param sources class body (without the package declaration) by binary class name
+     * @return the classes directory
+     */
+    static Path compile(File directory, Map<String, String> sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue(compiler != null, "a JDK is required to generate plugin classes");
+
+        Path sourceDirectory = directory.toPath().resolve("src");
+        Path classes = directory.toPath().resolve("classes");
+        Files.createDirectories(classes);
+        List<String> arguments = new ArrayList<>(Arrays.asList("-nowarn", "-d", classes.toString()));
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            String className = source.getKey();
+            int lastDotIndex = className.lastIndexOf('.');
+            Path file = sourceDirectory.resolve(className.replace('.', '/') + ".java");
+            Files.createDirectories(file.getParent());
+            String packageDeclaration = lastDotIndex >= 0 ? "package " + className.substring(0, lastDotIndex) + ";\n" : "";
+            Files.write(file, (packageDeclaration + source.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+            arguments.add(file.toString());
+        }
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+        return classes;
+    }
+
+    /**
+     * Writes the class files under {@code include}, except those under {@code exclude}, and
+     * the extra entries into a jar.
+     */
+    static File writeJar(File jar, Path classes, String include, String exclude, Map<String, byte[]> extraEntries) throws IOException {
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar));
+             Stream<Path> paths = Files.walk(classes)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile).sorted()::iterator) {
+                String entryName = classes.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!entryName.startsWith(include) || (exclude != null && entryName.startsWith(exclude))) continue;
+                output.putNextEntry(new JarEntry(entryName));
+                output.write(Files.readAllBytes(path));
+                output.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> entry : extraEntries.entrySet()) {
+                output.putNextEntry(new JarEntry(entry.getKey()));
+                output.write(entry.getValue());
+                output.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    static File writeJar(File jar, Path classes, String include) throws IOException {
+        return writeJar(jar, classes, include, null, Collections.emptyMap());
+    }
+}